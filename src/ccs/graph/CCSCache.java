@@ -0,0 +1,445 @@
+/*
+ This file is part of CayMos.
+
+ CayMos is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ CayMos is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ccs.graph;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+
+import ui.Debug;
+
+/**
+ * On-disk cache of Cayley configuration spaces and their connected
+ * components. Entries are keyed by a SHA-256 fingerprint of the linkage: its
+ * topology, bar lengths, base non-edge, construction sequence, the shape of
+ * every cluster in the initial realization, and the settings that affect the
+ * CCS. Each entry is one binary file holding the oriented intervals, the union
+ * intervals and, once computed, the components.
+ * <p>
+ * A missing, stale or unreadable entry is a miss: the CCS is computed and the
+ * entry rewritten.
+ */
+public class CCSCache {
+	private final static int MAGIC = 0x43435332; // "CCS2"
+
+	private final static String SUFFIX = ".ccs";
+
+	private final File dir;
+
+	/**
+	 * @param dir
+	 *            directory holding the entries; created if needed
+	 */
+	public CCSCache(File dir) {
+		this.dir = dir;
+	}
+
+	/**
+	 * Load the CCS of td from the cache, or generate and store it. Either way
+	 * it is set as td.cayleyConfigSpace.
+	 */
+	public CayleyConfigSpace getCayleyConfigSpace(TDLinkage td) {
+		if (td.ccsGenerated())
+			return td.cayleyConfigSpace;
+		String key = fingerprint(td);
+		Entry e = read(key, td);
+		if (e != null) {
+			Debug.msg("ccs cache hit: " + key);
+			td.cayleyConfigSpace = e.ccs;
+		} else {
+			Debug.msg("ccs cache miss: " + key);
+			td.genCayleyConfigSpace();
+			write(key, td.cayleyConfigSpace, null);
+		}
+		return td.cayleyConfigSpace;
+	}
+
+	/**
+	 * Load the connected components of td from the cache, or find and store
+	 * them. Loads or generates the CCS first if needed.
+	 */
+	public ArrayList<ConnectedComponent> getComponents(TDLinkage td) {
+		String key = fingerprint(td);
+		if (!td.ccsGenerated()) {
+			Entry e = read(key, td);
+			if (e != null) {
+				td.cayleyConfigSpace = e.ccs;
+				if (e.components != null) {
+					Debug.msg("component cache hit: " + key);
+					return e.components;
+				}
+			} else {
+				td.genCayleyConfigSpace();
+			}
+		} else {
+			// only reuse stored components of this very CCS
+			Entry e = read(key, td);
+			if (e != null && e.components != null
+					&& sameIntervals(e.ccs, td.cayleyConfigSpace))
+				return rebind(e.components, e.ccs, td.cayleyConfigSpace, td);
+		}
+		ArrayList<ConnectedComponent> components = ConnectedComponent
+				.findAllComponents(td);
+		write(key, td.cayleyConfigSpace, components);
+		return components;
+	}
+
+	// ========================= fingerprint =========================
+
+	/**
+	 * @return hex SHA-256 of everything the CCS of td depends on, invariant
+	 *         under rigid motions of the initial realization
+	 */
+	public static String fingerprint(TDLinkage td) {
+		MessageDigest md;
+		try {
+			md = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+		Realization init = td.getInitRealization();
+		LinkageGraph g = init.getGraph();
+
+		ArrayList<Vertex> vertices = new ArrayList<Vertex>(g.getVertices());
+		Collections.sort(vertices, BY_INDEX);
+		update(md, vertices.size());
+		for (Vertex v : vertices) {
+			update(md, v.index);
+			ArrayList<Vertex> neighbors = new ArrayList<Vertex>(
+					g.getNeighbors(v));
+			Collections.sort(neighbors, BY_INDEX);
+			for (Vertex u : neighbors) {
+				if (u.index < v.index)
+					continue;
+				update(md, u.index);
+				update(md, td.barLength(v, u));
+			}
+			update(md, -1);
+		}
+
+		Edge base = td.getBaseNonedge();
+		update(md, base.v1().index);
+		update(md, base.v2().index);
+
+		// the stored types hold one orientation per construction step, so
+		// they only apply to the same steps in the same order, which can
+		// differ between runs of the same linkage
+		update(md, td.getNumOfConstructStep());
+		for (int i = 0; i < td.getNumOfConstructStep(); ++i) {
+			ConstructionStep s = td.getConstructionStep(i);
+			update(md, s.v1().index);
+			update(md, s.v2().index);
+			update(md, s.v().index);
+		}
+
+		// shape of each cluster: orientation of its vertices with respect to
+		// its two lowest-indexed vertices
+		ArrayList<int[]> shapes = new ArrayList<int[]>();
+		for (Cluster c : td.getClusters()) {
+			ArrayList<Vertex> cv = new ArrayList<Vertex>(c.getVertices());
+			Collections.sort(cv, BY_INDEX);
+			int[] shape = new int[2 * cv.size()];
+			Point2D a = init.getPoint(cv.get(0)), b = init.getPoint(cv.get(1));
+			for (int i = 0; i < cv.size(); ++i) {
+				Point2D p = init.getPoint(cv.get(i));
+				double cross = (p.x() - a.x()) * (b.y() - a.y())
+						- (b.x() - a.x()) * (p.y() - a.y());
+				shape[2 * i] = cv.get(i).index;
+				shape[2 * i + 1] = (int) Math.signum(cross);
+			}
+			shapes.add(shape);
+		}
+		Collections.sort(shapes, new Comparator<int[]>() {
+			@Override
+			public int compare(int[] s1, int[] s2) {
+				for (int i = 0; i < Math.min(s1.length, s2.length); ++i)
+					if (s1[i] != s2[i])
+						return (s1[i] < s2[i] ? -1 : 1);
+				return s1.length - s2.length;
+			}
+		});
+		update(md, shapes.size());
+		for (int[] shape : shapes) {
+			update(md, shape.length);
+			for (int x : shape)
+				update(md, x);
+		}
+
+		update(md, td.getCCSEngine());
+		update(md, td.getSolveTolerance());
+		update(md, td.getEndpointTolerance());
+
+		StringBuilder s = new StringBuilder();
+		for (byte x : md.digest())
+			s.append(String.format("%02x", x));
+		return s.toString();
+	}
+
+	private final static Comparator<Vertex> BY_INDEX = new Comparator<Vertex>() {
+		@Override
+		public int compare(Vertex v1, Vertex v2) {
+			return v1.index - v2.index;
+		}
+	};
+
+	private static void update(MessageDigest md, int x) {
+		md.update(new byte[] { (byte) (x >>> 24), (byte) (x >>> 16),
+				(byte) (x >>> 8), (byte) x });
+	}
+
+	private static void update(MessageDigest md, double x) {
+		long l = Double.doubleToLongBits(x);
+		update(md, (int) (l >>> 32));
+		update(md, (int) l);
+	}
+
+	// ========================= file format =========================
+
+	private static class Entry {
+		CayleyConfigSpace ccs;
+
+		/**
+		 * null if not stored
+		 */
+		ArrayList<ConnectedComponent> components;
+	}
+
+	private File file(String key) {
+		return new File(dir, key + SUFFIX);
+	}
+
+	/**
+	 * @return the entry, or null on a miss or any error
+	 */
+	private Entry read(String key, TDLinkage td) {
+		File f = file(key);
+		if (!f.isFile())
+			return null;
+		DataInputStream in = null;
+		try {
+			in = new DataInputStream(new BufferedInputStream(
+					new FileInputStream(f)));
+			if (in.readInt() != MAGIC || !in.readUTF().equals(key))
+				return null;
+			Entry e = new Entry();
+			e.ccs = new CayleyConfigSpace();
+
+			int numOfSteps = td.getNumOfConstructStep();
+			int numOfTypes = in.readInt();
+			ArrayList<OrientedCayleyConfigSpace> oriented = new ArrayList<OrientedCayleyConfigSpace>();
+			for (int k = 0; k < numOfTypes; ++k) {
+				RealizationType t = new RealizationType(numOfSteps);
+				for (int i = 0; i < numOfSteps; ++i)
+					t.setOrientation(i, in.readByte());
+				OrientedCayleyConfigSpace o = new OrientedCayleyConfigSpace(t);
+				int n = in.readInt();
+				for (int i = 0; i < n; ++i) {
+					o.appendInterval(in.readDouble(), in.readDouble());
+					Interval interval = o.intervals.get(i);
+					interval.error = in.readDouble();
+					interval.lowerStep = in.readInt();
+					interval.upperStep = in.readInt();
+				}
+				e.ccs.addOrientedCCS(o);
+				oriented.add(o);
+			}
+			int n = in.readInt();
+			ArrayList<Interval> union = new ArrayList<Interval>();
+			for (int i = 0; i < n; ++i)
+				union.add(new Interval(in.readDouble(), in.readDouble()));
+			e.ccs.setUnionIntervals(union);
+
+			if (in.readBoolean()) {
+				e.components = new ArrayList<ConnectedComponent>();
+				int numOfComponents = in.readInt();
+				for (int c = 0; c < numOfComponents; ++c) {
+					ConnectedComponent component = new ConnectedComponent(td);
+					int size = in.readInt();
+					for (int i = 0; i < size; ++i) {
+						double start = in.readDouble(), end = in.readDouble();
+						OrientedCayleyConfigSpace o = oriented.get(in
+								.readInt());
+						Interval interval = o.intervals.get(in.readInt());
+						component.add(start, end, interval,
+								o.forwardSolutionType);
+					}
+					e.components.add(component);
+				}
+			}
+			return e;
+		} catch (IOException ex) {
+			Debug.warnMsg("cannot read ccs cache " + f + ": " + ex);
+			return null;
+		} catch (RuntimeException ex) {
+			// corrupt entry
+			Debug.warnMsg("cannot read ccs cache " + f + ": " + ex);
+			return null;
+		} finally {
+			close(in);
+		}
+	}
+
+	/**
+	 * Write the entry to a temporary file and rename it, so that readers
+	 * never see a partial entry. Errors are reported and otherwise ignored.
+	 */
+	private void write(String key, CayleyConfigSpace ccs,
+			ArrayList<ConnectedComponent> components) {
+		if (!dir.isDirectory() && !dir.mkdirs()) {
+			Debug.warnMsg("cannot create ccs cache directory " + dir);
+			return;
+		}
+		File f = file(key);
+		DataOutputStream out = null;
+		File tmp = null;
+		try {
+			tmp = File.createTempFile(key, ".tmp", dir);
+			out = new DataOutputStream(new BufferedOutputStream(
+					new FileOutputStream(tmp)));
+			out.writeInt(MAGIC);
+			out.writeUTF(key);
+
+			ArrayList<OrientedCayleyConfigSpace> oriented = new ArrayList<OrientedCayleyConfigSpace>(
+					ccs.getOrientedCCSs());
+			out.writeInt(oriented.size());
+			for (OrientedCayleyConfigSpace o : oriented) {
+				RealizationType t = o.getSolutionType();
+				for (int i = 0; i < t.getSize(); ++i)
+					out.writeByte(t.getOrientation(i));
+				out.writeInt(o.intervals.size());
+				for (Interval in : o.intervals) {
+					out.writeDouble(in.lower);
+					out.writeDouble(in.upper);
+					out.writeDouble(in.error);
+					out.writeInt(in.lowerStep);
+					out.writeInt(in.upperStep);
+				}
+			}
+			ArrayList<Interval> union = ccs.getIntervals();
+			out.writeInt(union == null ? 0 : union.size());
+			if (union != null) {
+				for (Interval in : union) {
+					out.writeDouble(in.lower);
+					out.writeDouble(in.upper);
+				}
+			}
+
+			out.writeBoolean(components != null);
+			if (components != null) {
+				out.writeInt(components.size());
+				for (ConnectedComponent c : components) {
+					out.writeInt(c.size());
+					for (int i = 0; i < c.size(); ++i) {
+						OrientedCayleyConfigSpace o = ccs.getOrientedCCS(c
+								.get(i).getSolutionType());
+						out.writeDouble(c.get(i).getStart());
+						out.writeDouble(c.get(i).getEnd());
+						out.writeInt(indexOf(oriented, o));
+						out.writeInt(indexOf(o.intervals, c.get(i)
+								.getInterval()));
+					}
+				}
+			}
+			out.close();
+			out = null;
+			if ((f.exists() && !f.delete()) || !tmp.renameTo(f))
+				Debug.warnMsg("cannot replace ccs cache " + f);
+		} catch (IOException ex) {
+			Debug.warnMsg("cannot write ccs cache " + f + ": " + ex);
+		} finally {
+			close(out);
+			if (tmp != null && tmp.exists())
+				tmp.delete();
+		}
+	}
+
+	/**
+	 * @return index of o in l by identity
+	 */
+	private static int indexOf(ArrayList<?> l, Object o) {
+		for (int i = 0; i < l.size(); ++i)
+			if (l.get(i) == o)
+				return i;
+		throw new IllegalArgumentException(o + " not in the ccs");
+	}
+
+	/**
+	 * @return whether c1 and c2 have the same types with the same intervals
+	 */
+	private static boolean sameIntervals(CayleyConfigSpace c1,
+			CayleyConfigSpace c2) {
+		if (c1.getOrientedCCSs().size() != c2.getOrientedCCSs().size())
+			return false;
+		for (OrientedCayleyConfigSpace o1 : c1.getOrientedCCSs()) {
+			OrientedCayleyConfigSpace o2 = c2.getOrientedCCS(o1
+					.getSolutionType());
+			if (o2 == null || o1.intervals.size() != o2.intervals.size())
+				return false;
+			for (int i = 0; i < o1.intervals.size(); ++i) {
+				Interval in1 = o1.intervals.get(i), in2 = o2.intervals.get(i);
+				if (in1.lower != in2.lower || in1.upper != in2.upper)
+					return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return components equal to the given ones, referring to the intervals
+	 *         of ccs instead of those of loaded
+	 */
+	private static ArrayList<ConnectedComponent> rebind(
+			ArrayList<ConnectedComponent> components,
+			CayleyConfigSpace loaded, CayleyConfigSpace ccs, TDLinkage td) {
+		ArrayList<ConnectedComponent> result = new ArrayList<ConnectedComponent>();
+		for (ConnectedComponent c : components) {
+			ConnectedComponent r = new ConnectedComponent(td);
+			for (int i = 0; i < c.size(); ++i) {
+				RealizationType type = c.get(i).getSolutionType();
+				OrientedCayleyConfigSpace from = loaded.getOrientedCCS(type);
+				OrientedCayleyConfigSpace to = ccs.getOrientedCCS(type);
+				Interval interval = to.intervals.get(indexOf(from.intervals,
+						c.get(i).getInterval()));
+				r.add(c.get(i).getStart(), c.get(i).getEnd(), interval, type);
+			}
+			result.add(r);
+		}
+		return result;
+	}
+
+	private static void close(Closeable c) {
+		if (c == null)
+			return;
+		try {
+			c.close();
+		} catch (IOException e) {
+			// nothing to do
+		}
+	}
+}
@@ -0,0 +1,325 @@
+/*
+ This file is part of CayMos.
+
+ CayMos is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ CayMos is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ccs.graph;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.TreeMap;
+
+import ui.Debug;
+
+/**
+ * Generates the Cayley configuration space by propagating, step by step along
+ * the construction sequence, the set of base non-edge lengths for which every
+ * step so far is realizable. The set is shared by the two orientations of a
+ * step, since the orientation of step i only matters for steps after i.
+ * <p>
+ * Within each interval of the current set, the feasibility margin of the next
+ * step is sampled on a grid. Grid cells where the margin could cross 0, judging
+ * by its slope at the neighboring samples, are subdivided, and every sign
+ * change is located by bisection. A margin that only touches 0 (a tangency) is
+ * not detected.
+ * @see CayleyConfigSpace#generateCCS(TDLinkage)
+ */
+class CCSPropagation {
+	/**
+	 * samples per interval when looking for sign changes of a step's margin
+	 */
+	final static int GRID = 64;
+
+	/**
+	 * bisection steps per endpoint
+	 */
+	final static int BISECTIONS = 60;
+
+	private ConstructionPlan p;
+	private FlatRealization r;
+	private double x0, y0;
+	private int[] orient;
+
+	/**
+	 * intervals of each realization type, in the order of
+	 * RealizationType.generateSolutionTypes
+	 */
+	private TreeMap<RealizationType, OrientedCayleyConfigSpace> leaves = new TreeMap<RealizationType, OrientedCayleyConfigSpace>(
+			RealizationType.GENERATION_ORDER);
+
+	private CCSPropagation(TDLinkage td) {
+		p = td.getPlan();
+		r = new FlatRealization(td.getIndexBound());
+		Point2D p1 = td.getInitRealization().getPoint(td.getBaseNonedge().v1());
+		x0 = p1.x();
+		y0 = p1.y();
+		orient = new int[p.numOfSteps];
+	}
+
+	/**
+	 * @throws IllegalStateException
+	 *             if the first construction step is not built on the base
+	 *             non-edge
+	 */
+	static CayleyConfigSpace generateCCS(TDLinkage td) {
+		CCSPropagation g = new CCSPropagation(td);
+		ConstructionPlan p = g.p;
+		assert (p.numOfSteps > 0);
+		// the domain below is that of the first step, which is only the
+		// domain of the base non-edge if the step is built on it
+		if (p.v1[0] != p.base1 || p.v2[0] != p.base2)
+			throw new IllegalStateException("first construction step is not "
+					+ "built on the base non-edge " + td.getBaseNonedge());
+
+		ArrayList<Interval> domain = new ArrayList<Interval>();
+		domain.add(new Interval(Math.abs(p.r1[0] - p.r2[0]), p.r1[0] + p.r2[0]));
+		g.propagate(1, domain);
+
+		CayleyConfigSpace ccs = new CayleyConfigSpace();
+		for (Map.Entry<RealizationType, OrientedCayleyConfigSpace> e : g.leaves
+				.entrySet()) {
+			Debug.msg("oriented ccs:" + e.getValue() + "\n");
+			ccs.addOrientedCCS(e.getValue());
+		}
+		ccs.generateUnionIntervals();
+		Debug.msg("overall: " + ccs.printUnionIntervals(), 1);
+		return ccs;
+	}
+
+	/**
+	 * Compare a CCS of td generated by this engine with the one the candidate
+	 * engine generates, and report at warn level every type whose intervals
+	 * differ by more than 2 * ACCURACY. The grid search misses intervals
+	 * narrower than its cells and tangencies, which this shows.
+	 * 
+	 * @return the number of types that differ
+	 */
+	static int compareWithCandidates(TDLinkage td,
+			CayleyConfigSpace propagated) {
+		CayleyConfigSpace candidates = CayleyConfigSpace.generateCCS(td);
+		int n = 0;
+		for (OrientedCayleyConfigSpace o : candidates.getOrientedCCSs())
+			if (!sameIntervals(o, propagated.getOrientedCCS(o
+					.getSolutionType())))
+				++n;
+		for (OrientedCayleyConfigSpace o : propagated.getOrientedCCSs())
+			if (candidates.getOrientedCCS(o.getSolutionType()) == null
+					&& !o.intervals.isEmpty()) {
+				Debug.warnMsg("propagation: " + o.getSolutionType() + o
+						+ ", candidates: none");
+				++n;
+			}
+		return n;
+	}
+
+	private static boolean sameIntervals(OrientedCayleyConfigSpace candidate,
+			OrientedCayleyConfigSpace propagated) {
+		ArrayList<Interval> l1 = candidate.intervals;
+		ArrayList<Interval> l2 = (propagated == null ? new ArrayList<Interval>()
+				: propagated.intervals);
+		final double eps = 2 * TDLinkage.ACCURACY;
+		boolean same = (l1.size() == l2.size());
+		for (int i = 0; same && i < l1.size(); ++i) {
+			Interval in1 = l1.get(i), in2 = l2.get(i);
+			same = Math.abs(in1.lower - in2.lower) <= eps
+					&& Math.abs(in1.upper - in2.upper) <= eps;
+		}
+		if (!same)
+			Debug.warnMsg("candidates: " + candidate.getSolutionType()
+					+ candidate + ", propagation: "
+					+ (propagated == null ? "none" : propagated.toString()));
+		return same;
+	}
+
+	/**
+	 * Compare the two engines on linkages saved by the UI: prints the number
+	 * of differing types of each file that is a low 1-dof tree-decomposable
+	 * linkage, and exits with 1 if any differs.
+	 * <p>
+	 * Usage: java ccs.graph.CCSPropagation file...
+	 */
+	public static void main(String[] args) throws IOException,
+			ClassNotFoundException {
+		int differ = 0;
+		for (String file : args) {
+			ObjectInputStream in = new ObjectInputStream(new FileInputStream(
+					file));
+			Realization r;
+			try {
+				r = Realization.readFromStream(in);
+			} finally {
+				in.close();
+			}
+			TDLinkage td = new TDLinkage(r.getGraph());
+			if (!td.is1DofTreeDecomposable()) {
+				System.out.println(file + ": not 1-dof tree-decomposable");
+				continue;
+			}
+			td.setInitPoints(r);
+			td.normalizeBaseNonEdge();
+			if (!td.isLow()) {
+				System.out.println(file + ": not low");
+				continue;
+			}
+			int n = compareWithCandidates(td, generateCCS(td));
+			System.out.println(file + ": " + n + " types differ");
+			if (n > 0)
+				++differ;
+		}
+		System.exit(differ > 0 ? 1 : 0);
+	}
+
+	/**
+	 * @param i
+	 *            steps [0, i) are realizable on s, with the orientations of
+	 *            steps [0, i-1) set
+	 * @param s
+	 *            lengths of the base non-edge
+	 */
+	private void propagate(int i, ArrayList<Interval> s) {
+		for (int o = 1; o >= -1; o -= 2) {
+			orient[i - 1] = o;
+			if (i == p.numOfSteps) {
+				addLeaf(s);
+				continue;
+			}
+			ArrayList<Interval> next = feasible(i, s);
+			if (!next.isEmpty())
+				propagate(i + 1, next);
+		}
+	}
+
+	private void addLeaf(ArrayList<Interval> s) {
+		RealizationType type = new RealizationType(orient.length);
+		for (int j = 0; j < orient.length; ++j)
+			type.setOrientation(j, orient[j]);
+		OrientedCayleyConfigSpace occs = new OrientedCayleyConfigSpace(type);
+		for (Interval in : s)
+			occs.appendInterval(in.lower, in.upper);
+		// the oriented CCS keeps type, so the key is a copy of its own
+		leaves.put(type.clone(), occs);
+	}
+
+	/**
+	 * @return the subset of s for which step i is realizable
+	 */
+	private ArrayList<Interval> feasible(int i, ArrayList<Interval> s) {
+		ArrayList<Interval> result = new ArrayList<Interval>();
+		for (Interval in : s) {
+			if (in.lower == in.upper) {
+				if (margin(i, in.lower) >= 0)
+					result.add(in);
+				continue;
+			}
+
+			double[] f = new double[GRID + 1], m = new double[GRID + 1];
+			for (int k = 0; k <= GRID; ++k) {
+				f[k] = (k == GRID ? in.upper : in.lower + k
+						* (in.upper - in.lower) / GRID);
+				m[k] = margin(i, f[k]);
+			}
+
+			// lengths where step i becomes realizable or stops being so
+			ArrayList<Double> changes = new ArrayList<Double>();
+			for (int k = 0; k < GRID; ++k) {
+				// the margin may dip across 0 between two samples of the same
+				// sign; estimate its slope from the neighboring samples
+				double slope = 0;
+				for (int j = Math.max(k - 1, 0); j <= Math.min(k + 1, GRID - 1); ++j)
+					slope = Math.max(slope, Math.abs(m[j + 1] - m[j])
+							/ (f[j + 1] - f[j]));
+				scan(i, f[k], m[k], f[k + 1], m[k + 1], 2 * slope, changes);
+			}
+
+			Double start = (m[0] >= 0 ? in.lower : null);
+			for (double c : changes) {
+				if (start == null) {
+					start = c;
+				} else {
+					result.add(new Interval(start, c));
+					start = null;
+				}
+			}
+			if (start != null)
+				result.add(new Interval(start, in.upper));
+		}
+		return result;
+	}
+
+	/**
+	 * Append to changes the points in (a, b) where step i changes between
+	 * realizable and not, given the margins ma, mb at a, b and an estimated
+	 * bound on the slope of the margin
+	 */
+	private void scan(int i, double a, double ma, double b, double mb,
+			double slope, ArrayList<Double> changes) {
+		boolean aIn = ma >= 0, bIn = mb >= 0;
+		if (aIn != bIn) {
+			changes.add(boundary(i, a, b, aIn));
+			return;
+		}
+		if (b - a < TDLinkage.ACCURACY
+				|| Math.abs(ma) + Math.abs(mb) >= slope * (b - a))
+			return;
+		double mid = (a + b) / 2;
+		double mm = margin(i, mid);
+		scan(i, a, ma, mid, mm, slope, changes);
+		scan(i, mid, mm, b, mb, slope, changes);
+	}
+
+	/**
+	 * Bisect for the point between lo and hi where step i changes between
+	 * realizable and not
+	 * 
+	 * @return the realizable end of the last bracket
+	 */
+	private double boundary(int i, double lo, double hi, boolean loIn) {
+		for (int k = 0; k < BISECTIONS; ++k) {
+			double mid = (lo + hi) / 2;
+			if (mid <= lo || mid >= hi)
+				break;
+			if ((margin(i, mid) >= 0) == loIn)
+				lo = mid;
+			else
+				hi = mid;
+		}
+		return (loIn ? lo : hi);
+	}
+
+	/**
+	 * @return how far the base pair of step i is inside its realizable range
+	 *         when the base non-edge has length f and steps before i use the
+	 *         current orientations; negative if step i is not realizable
+	 */
+	private double margin(int i, double f) {
+		r.x[p.base1] = x0;
+		r.y[p.base1] = y0;
+		r.x[p.base2] = x0 + f;
+		r.y[p.base2] = y0;
+		for (int j = 0; j < i; ++j) {
+			if (!p.placeStep(j, r, orient[j]))
+				return -1;
+			p.placeClusters(j, r);
+		}
+		double dx = r.x[p.v1[i]] - r.x[p.v2[i]];
+		double dy = r.y[p.v1[i]] - r.y[p.v2[i]];
+		double d = Math.sqrt(dx * dx + dy * dy);
+		return Math.min(d - Math.abs(p.r1[i] - p.r2[i]), p.r1[i] + p.r2[i]
+				- d);
+	}
+}
@@ -0,0 +1,161 @@
+/*
+ This file is part of CayMos.
+
+ CayMos is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ CayMos is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ccs.graph;
+
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Realizability of one type at its sorted candidate endpoints and at the
+ * midpoints between consecutive candidates, which is all that
+ * {@link TDLinkage#genOrientedCCSFromCandidates(CandidateProbes)} needs to
+ * classify the candidates. Each distinct length is probed once: the midpoint
+ * after a candidate is the midpoint before the next one. A midpoint is only
+ * probed if one of its two candidates is realizable.
+ * <p>
+ * A probe is {@link TDLinkage#realizable(double, RealizationType)}: one
+ * feasibility pass if the length is realizable, and with a zero solve
+ * tolerance two more at +/- {@link TDLinkage#ACCURACY} if it is not.
+ */
+class CandidateProbes {
+	/**
+	 * Lengths probed serially by one task of a parallel evaluation
+	 */
+	private final static int PROBES_PER_TASK = 16;
+
+	private final TDLinkage td;
+	private final CandidateSet candidates;
+	private final RealizationType type;
+
+	/**
+	 * at[i]: whether candidate i is realizable
+	 */
+	private final boolean[] at;
+
+	/**
+	 * between[i]: whether the midpoint of candidates i and i+1 is realizable
+	 */
+	private final boolean[] between;
+
+	private int numOfProbes = 0;
+
+	CandidateProbes(TDLinkage td, CandidateSet candidates, RealizationType type) {
+		this.td = td;
+		this.candidates = candidates;
+		this.type = type;
+		at = new boolean[candidates.size()];
+		between = new boolean[Math.max(candidates.size() - 1, 0)];
+	}
+
+	/**
+	 * Probe the candidates, then the midpoints next to realizable candidates
+	 * 
+	 * @param parallel
+	 *            whether to split the probes into fork-join tasks, on the
+	 *            current pool or on {@link TDLinkage#solvePool}
+	 */
+	void evaluate(boolean parallel) {
+		if (!parallel) {
+			numOfProbes = probe(false, 0, at.length)
+					+ probe(true, 0, between.length);
+		} else if (ForkJoinTask.inForkJoinPool()) {
+			numOfProbes = new ProbeTask(false, 0, at.length).invoke()
+					+ new ProbeTask(true, 0, between.length).invoke();
+		} else {
+			numOfProbes = TDLinkage.solvePool.invoke(new ProbeTask(false, 0,
+					at.length))
+					+ TDLinkage.solvePool.invoke(new ProbeTask(true, 0,
+							between.length));
+		}
+	}
+
+	/**
+	 * Probe the candidates, or the midpoints, in [from, to)
+	 * 
+	 * @return the number of lengths probed
+	 */
+	private int probe(boolean midpoints, int from, int to) {
+		int n = 0;
+		for (int i = from; i < to; ++i) {
+			if (!midpoints) {
+				at[i] = td.realizable(candidates.get(i), type);
+				++n;
+			} else if (at[i] || at[i + 1]) {
+				between[i] = td.realizable(
+						(candidates.get(i) + candidates.get(i + 1)) / 2, type);
+				++n;
+			}
+		}
+		return n;
+	}
+
+	private class ProbeTask extends RecursiveTask<Integer> {
+		private static final long serialVersionUID = 1L;
+
+		private final boolean midpoints;
+		private final int from, to;
+
+		ProbeTask(boolean midpoints, int from, int to) {
+			this.midpoints = midpoints;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected Integer compute() {
+			if (to - from <= PROBES_PER_TASK)
+				return probe(midpoints, from, to);
+			int mid = (from + to) >>> 1;
+			ProbeTask left = new ProbeTask(midpoints, from, mid);
+			left.fork();
+			int n = new ProbeTask(midpoints, mid, to).compute();
+			return left.join() + n;
+		}
+	}
+
+	int size() {
+		return at.length;
+	}
+
+	double candidate(int i) {
+		return candidates.get(i);
+	}
+
+	RealizationType getType() {
+		return type;
+	}
+
+	boolean realizableAt(int i) {
+		return at[i];
+	}
+
+	/**
+	 * @return whether the midpoint of candidates i and i+1 is realizable;
+	 *         false if neither is
+	 */
+	boolean realizableAfter(int i) {
+		return between[i];
+	}
+
+	/**
+	 * @return the number of lengths probed by {@link #evaluate(boolean)}
+	 */
+	int getNumOfProbes() {
+		return numOfProbes;
+	}
+}
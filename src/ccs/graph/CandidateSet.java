@@ -0,0 +1,82 @@
+/*
+ This file is part of CayMos.
+
+ CayMos is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ CayMos is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ccs.graph;
+
+import java.util.Arrays;
+
+/**
+ * A sorted set of candidate lengths, stored in a growable double array. A
+ * value within the tolerance of a member is not added, so members are always
+ * at least the tolerance apart and only the two neighbors of the insertion
+ * point need to be checked.
+ */
+class CandidateSet {
+	private final double tolerance;
+	private double[] values;
+	private int size = 0;
+
+	CandidateSet(double tolerance) {
+		this.tolerance = tolerance;
+		values = new double[16];
+	}
+
+	/**
+	 * Add x unless a member is within the tolerance of it
+	 * 
+	 * @return whether x was added
+	 */
+	boolean add(double x) {
+		int i = Arrays.binarySearch(values, 0, size, x);
+		if (i >= 0)
+			return false;
+		i = -i - 1;
+		if (i > 0 && Math.abs(values[i - 1] - x) < tolerance)
+			return false;
+		if (i < size && Math.abs(values[i] - x) < tolerance)
+			return false;
+		if (size == values.length)
+			values = Arrays.copyOf(values, 2 * size);
+		System.arraycopy(values, i, values, i + 1, size - i);
+		values[i] = x;
+		++size;
+		return true;
+	}
+
+	/**
+	 * @return the i-th smallest member
+	 */
+	double get(int i) {
+		if (i >= size)
+			throw new IndexOutOfBoundsException("Index: " + i + ", Size: "
+					+ size);
+		return values[i];
+	}
+
+	int size() {
+		return size;
+	}
+
+	boolean isEmpty() {
+		return size == 0;
+	}
+
+	@Override
+	public String toString() {
+		return Arrays.toString(Arrays.copyOf(values, size));
+	}
+}
@@ -21,6 +21,7 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.concurrent.RecursiveAction;
 
 import ui.Debug;
 
@@ -32,40 +33,73 @@ public class CayleyConfigSpace implements CCSInterface {
 	// decomposed, indexed by forward solution type
 	private ArrayList<OrientedCayleyConfigSpace> orientedCCS;
 
+	// orientedCCS keyed by (a copy of) forward solution type
+	private HashMap<RealizationType, OrientedCayleyConfigSpace> orientedCCSByType;
+
 	private ArrayList<Interval> unionIntervals;
 
+	/**
+	 * indices on unionIntervals and on the intervals of all oriented CCSs;
+	 * built on the first query
+	 */
+	private volatile IntervalIndex unionIndex, orientedIndex;
+
+	/**
+	 * owner[i]: index in orientedCCS of the i-th interval of orientedIndex
+	 */
+	private int[] orientedOwner;
+
+	/**
+	 * adjacency of the oriented intervals at their endpoints; built on the
+	 * first component query
+	 */
+	private volatile IntervalGraph intervalGraph;
+
 	private int numOrientedIntervals = 0;
 
+	/**
+	 * lengths probed to classify the candidates of the oriented CCSs
+	 */
+	private long numOfProbes = 0;
+
 	private double min = Double.POSITIVE_INFINITY,
 			max = Double.NEGATIVE_INFINITY;
 
 	public CayleyConfigSpace() {
 		forwardSolutionTypes = new ArrayList<RealizationType>();
 		orientedCCS = new ArrayList<OrientedCayleyConfigSpace>();
+		orientedCCSByType = new HashMap<RealizationType, OrientedCayleyConfigSpace>();
+	}
+
+	/**
+	 * @return the number of lengths probed to classify the candidate
+	 *         endpoints, when generated by {@link #generateCCS(TDLinkage)}
+	 */
+	public long getNumOfProbes() {
+		return numOfProbes;
 	}
 
 	public Collection<OrientedCayleyConfigSpace> getOrientedCCSs() {
 		return orientedCCS;
 	}
 
+	/**
+	 * @return the oriented CCS of the given type, or null if the type is not
+	 *         realizable
+	 */
 	public OrientedCayleyConfigSpace getOrientedCCS(RealizationType type) {
-		int index;
-		for (index = 0; index < forwardSolutionTypes.size(); ++index) {
-			RealizationType t = forwardSolutionTypes.get(index);
-			if (t.equals(type))
-				break;
-		}
-		if (index >= forwardSolutionTypes.size())
-			return null;
-		// int index = forwardSolutionTypes.indexOf(type);
-		return orientedCCS.get(index);
+		return orientedCCSByType.get(type);
 	}
 
 	public void addOrientedCCS(OrientedCayleyConfigSpace o) {
-		for (RealizationType t : forwardSolutionTypes)
-			assert (!t.equals(o.forwardSolutionType));
+		// key by a copy: types are mutable
+		OrientedCayleyConfigSpace old = orientedCCSByType.put(
+				o.forwardSolutionType.clone(), o);
+		assert (old == null);
 		forwardSolutionTypes.add(o.forwardSolutionType);
 		orientedCCS.add(o);
+		orientedIndex = null;
+		intervalGraph = null;
 		double min = o.getMin(), max = o.getMax();
 		this.min = (min < this.min ? min : this.min);
 		this.max = (max > this.max ? max : this.max);
@@ -96,6 +130,7 @@ public class CayleyConfigSpace implements CCSInterface {
 
 	public void generateUnionIntervals() {
 		unionIntervals = new ArrayList<Interval>();
+		unionIndex = null;
 		ArrayList<Interval> l = new ArrayList<Interval>();
 		for (int i = 0; i < forwardSolutionTypes.size(); ++i) {
 			l.addAll(orientedCCS.get(i).intervals);
@@ -123,81 +158,268 @@ public class CayleyConfigSpace implements CCSInterface {
 		return unionIntervals;
 	}
 
+	/**
+	 * Set the union intervals as stored, instead of generating them
+	 */
+	void setUnionIntervals(ArrayList<Interval> intervals) {
+		unionIntervals = intervals;
+		unionIndex = null;
+	}
+
+	/**
+	 * @return the interval of the union CCS containing value, or null if none
+	 */
+	public Interval getContainingInterval(double value) {
+		IntervalIndex i = unionIndex;
+		if (i == null) {
+			i = new IntervalIndex(unionIntervals);
+			unionIndex = i;
+		}
+		return i.find(value);
+	}
+
+	/**
+	 * For every realization type whose oriented CCS contains value, the
+	 * oriented CCS and its interval containing value. Answered by a single
+	 * index over the intervals of all oriented CCSs.
+	 * 
+	 * @return pairs of oriented CCS and interval, in the order of
+	 *         {@link #getOrientedCCSs()}
+	 */
+	public ArrayList<TwoTuple<OrientedCayleyConfigSpace, Interval>> getContainingIntervals(
+			double value) {
+		IntervalIndex index;
+		int[] owner;
+		synchronized (this) {
+			if (orientedIndex == null) {
+				ArrayList<Interval> l = new ArrayList<Interval>();
+				ArrayList<Integer> ks = new ArrayList<Integer>();
+				for (int k = 0; k < orientedCCS.size(); ++k) {
+					for (Interval in : orientedCCS.get(k).intervals) {
+						l.add(in);
+						ks.add(k);
+					}
+				}
+				orientedOwner = new int[l.size()];
+				for (int i = 0; i < l.size(); ++i)
+					orientedOwner[i] = ks.get(i);
+				orientedIndex = new IntervalIndex(l);
+			}
+			index = orientedIndex;
+			owner = orientedOwner;
+		}
+
+		ArrayList<TwoTuple<OrientedCayleyConfigSpace, Interval>> result = new ArrayList<TwoTuple<OrientedCayleyConfigSpace, Interval>>();
+		int last = -1;
+		for (int i : index.stab(value)) {
+			// intervals of one type are consecutive; keep the first hit
+			if (owner[i] == last || !index.get(i).contains(value))
+				continue;
+			last = owner[i];
+			result.add(new TwoTuple<OrientedCayleyConfigSpace, Interval>(
+					orientedCCS.get(last), index.get(i)));
+		}
+		return result;
+	}
+
 	public String printUnionIntervals() {
 		return unionIntervals.toString();
 	}
 
+	/**
+	 * @param t
+	 *            the linkage of this CCS, solved for the extreme steps at
+	 *            unrefined endpoints when the graph is built
+	 * @return the adjacency of the oriented intervals at their endpoints
+	 */
+	IntervalGraph getIntervalGraph(TDLinkage t) {
+		IntervalGraph g = intervalGraph;
+		if (g == null) {
+			synchronized (this) {
+				g = intervalGraph;
+				if (g == null) {
+					g = new IntervalGraph(t, this);
+					intervalGraph = g;
+				}
+			}
+		}
+		return g;
+	}
+
+	/**
+	 * Refine the endpoints of every oriented interval, see
+	 * {@link OrientedCayleyConfigSpace#refineEndpoints(TDLinkage, double)},
+	 * and rebuild the union intervals from them
+	 */
+	void refineEndpoints(TDLinkage td, double tolerance) {
+		min = Double.POSITIVE_INFINITY;
+		max = Double.NEGATIVE_INFINITY;
+		for (OrientedCayleyConfigSpace o : orientedCCS) {
+			o.refineEndpoints(td, tolerance);
+			min = Math.min(min, o.getMin());
+			max = Math.max(max, o.getMax());
+		}
+		orientedIndex = null;
+		intervalGraph = null;
+		generateUnionIntervals();
+		Debug.msg("refined endpoints to " + tolerance + ": "
+				+ printUnionIntervals(), 1);
+	}
+
+	/**
+	 * Types handled serially by one task of the parallel generation
+	 */
+	private final static int TYPES_PER_TASK = 8;
+
+	/**
+	 * A realization of an extreme linkage at one of its extreme lengths
+	 */
+	private static class ExtremeSolution {
+		/**
+		 * index of the extreme step
+		 */
+		final int step;
+
+		final double length;
+
+		/**
+		 * length of the base non-edge of the original linkage
+		 */
+		final double distance;
+
+		/**
+		 * forward solution type of the original linkage, up to the extreme
+		 * step
+		 */
+		final RealizationType type;
+
+		ExtremeSolution(int step, double length, double distance,
+				RealizationType type) {
+			this.step = step;
+			this.length = length;
+			this.distance = distance;
+			this.type = type;
+		}
+	}
+
+	/**
+	 * The extreme linkages of a {@link TDLinkage} and their solutions, per
+	 * step. The extreme linkages share the initial realization of the
+	 * linkage, so they stay valid while its topology and construction
+	 * sequence do; the solutions of a step stay valid while the clusters of
+	 * the steps up to it keep their shapes.
+	 */
+	static class ExtremeCache {
+		private final TDLinkage[] linkages;
+		private final ArrayList<ExtremeSolution>[] solutions;
+
+		ExtremeCache(int numOfSteps) {
+			linkages = new TDLinkage[numOfSteps];
+			solutions = newSolutionArray(numOfSteps);
+		}
+
+		/**
+		 * Solve the i-th extreme linkage, unless its solutions are cached.
+		 * Calls for different steps may run concurrently.
+		 */
+		ArrayList<ExtremeSolution> get(TDLinkage td, int i) {
+			if (solutions[i] == null) {
+				if (linkages[i] == null)
+					linkages[i] = td.getExtreme1DofLinkage(i);
+				solutions[i] = solveExtreme(td, linkages[i], i);
+			} else {
+				Debug.msg(i + "th extreme solutions reused");
+			}
+			return solutions[i];
+		}
+
+		/**
+		 * Drop the solutions of the steps from the given one on, after the
+		 * initial realization moved
+		 */
+		void invalidate(int from) {
+			for (int i = 0; i < linkages.length; ++i) {
+				if (linkages[i] != null)
+					linkages[i].invalidatePlan();
+				if (i >= from)
+					solutions[i] = null;
+			}
+		}
+	}
+
 	public static CayleyConfigSpace generateCCS(TDLinkage td) {
+		return generateCCS(td, false, false);
+	}
+
+	/**
+	 * @param parallel
+	 *            whether to solve the extreme linkages and build the oriented
+	 *            CCSs on a fork-join pool; the result is the same as serial
+	 * @param sparse
+	 *            whether to check only the types found by
+	 *            {@link #discoverTypes(TDLinkage, ArrayList[])} instead of
+	 *            all 2^n types
+	 */
+	static CayleyConfigSpace generateCCS(final TDLinkage td,
+			boolean parallel, boolean sparse) {
 		boolean b = td.isLow();
 		assert (b);
 		b = td.constructionSequenceGenerated();
 		assert (b);
 		// for low: reverse solve for each extreme graph
-		// TODO: generate oriented for each fwd sol type
-		// ArrayList<java.lang.Double> candidate = new
-		// ArrayList<java.lang.Double>();
-		// SolutionType forward = getForwardSolutionType();
-		HashMap<RealizationType, ArrayList<Double>> candidates = new HashMap<RealizationType, ArrayList<Double>>();
-		ArrayList<RealizationType> types = RealizationType
-				.generateSolutionTypes(td.getNumOfConstructStep());
-		for (RealizationType type : types) {
-			candidates.put(type, new ArrayList<Double>());
-		}
-
-		for (int i = 0; i < td.getNumOfConstructStep(); ++i) {
-			TDLinkage t = td.getExtreme1DofLinkage(i);
-			// Debug.warnMsg(i+"th extreme graph:"+t);
-			Interval interval = td.extremeInterval(td.getConstructionStep(i));
-			Debug.msg(i + "th extreme Interval:" + interval);
-
-			for (double length : interval.toArray()) {
-				// added Accuracy ...
-				// ??? May return duplicate result, Why? -- come from
-				// reflection?
-				ArrayList<Realization> solutions = t.tryRealize(length);
-				Debug.msg("extreme l:"+length+"; extreme solution size:"+solutions.size());
-
-				for (Realization g : solutions) {
-					// System.out.println(g.printPoints());
-					double distance = g.length(td.getBaseNonedge());
-					RealizationType extremeSolType = td.getForwardSolutionType(
-							g, i);
-					for (RealizationType type : types) {
-						if (type.compatible(extremeSolType)) {
-							ArrayList<Double> typeCandidates = candidates
-									.get(type);
-							boolean addit = true;
-							for (double d : typeCandidates) {
-								if (Math.abs(d - distance) < TDLinkage.ACCURACY) {
-									addit = false;
-									break;
-								}
-							}
-							if (addit) {
-								Debug.msg("for type " + type
-										+ ", add solution of " + length
-										+ " to candidates: " + distance);
-								typeCandidates.add(distance);
-							}
-						}
+		final int numOfSteps = td.getNumOfConstructStep();
+		final ArrayList<ExtremeSolution>[] extremes = newSolutionArray(numOfSteps);
+		if (td.extremeCache == null)
+			td.extremeCache = new ExtremeCache(numOfSteps);
+		final ExtremeCache cache = td.extremeCache;
+
+		if (parallel) {
+			// compile the plan before the tasks share td
+			td.getPlan();
+			final ArrayList<RecursiveAction> tasks = new ArrayList<RecursiveAction>();
+			for (int i = 0; i < numOfSteps; ++i) {
+				final int step = i;
+				tasks.add(new RecursiveAction() {
+					private static final long serialVersionUID = 1L;
+
+					@Override
+					protected void compute() {
+						extremes[step] = cache.get(td, step);
 					}
-				}
+				});
 			}
+			TDLinkage.solvePool.invoke(new RecursiveAction() {
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				protected void compute() {
+					invokeAll(tasks);
+				}
+			});
+		} else {
+			for (int i = 0; i < numOfSteps; ++i)
+				extremes[i] = cache.get(td, i);
+		}
 
+		ArrayList<RealizationType> types = (sparse ? discoverTypes(td,
+				extremes) : RealizationType.generateSolutionTypes(numOfSteps));
+		OrientedCayleyConfigSpace[] oriented = new OrientedCayleyConfigSpace[types
+				.size()];
+		int[] probes = new int[types.size()];
+		if (parallel) {
+			TDLinkage.solvePool.invoke(new TypeTask(td, types, extremes,
+					oriented, probes, 0, types.size()));
+		} else {
+			for (int k = 0; k < types.size(); ++k)
+				oriented[k] = genOrientedCCS(td, types.get(k), extremes,
+						false, probes, k);
 		}
+
 		CayleyConfigSpace ccs = new CayleyConfigSpace();
-		for (RealizationType type : types) {
-			ArrayList<Double> typeCandidates = candidates.get(type);
-			if (typeCandidates.isEmpty())
-				continue;
-			Collections.sort(typeCandidates);
-			Debug.msg("for type " + type + ", sorted candidates:"
-					+ typeCandidates);
-
-			// Check candidate points & set up intervals
-			OrientedCayleyConfigSpace orientedCCS = td
-					.genOrientedCCSFromCandidates(typeCandidates, type);
-			if (orientedCCS.isEmpty())
+		for (int n : probes)
+			ccs.numOfProbes += n;
+		for (OrientedCayleyConfigSpace orientedCCS : oriented) {
+			if (orientedCCS == null)
 				continue;
 			Debug.msg("oriented ccs:" + orientedCCS + "\n");
 			ccs.addOrientedCCS(orientedCCS);
@@ -206,6 +428,190 @@ public class CayleyConfigSpace implements CCSInterface {
 		ccs.generateUnionIntervals();
 		Debug.msg("overall: " + ccs.printUnionIntervals(), 1);
 		Debug.msg("# of oriented intervals: " + ccs.numOrientedIntervals, 1);
+		Debug.msg("# of probes: " + ccs.numOfProbes, 1);
 		return ccs;
 	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private static ArrayList<ExtremeSolution>[] newSolutionArray(int n) {
+		return new ArrayList[n];
+	}
+
+	/**
+	 * Build the oriented CCSs of types [from, to). Each type collects its own
+	 * candidates and writes its oriented CCS and probe count to its own slots
+	 * of oriented and probes, so the tasks share no mutable state and the
+	 * merge is in type order.
+	 */
+	private static class TypeTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final TDLinkage td;
+		private final ArrayList<RealizationType> types;
+		private final ArrayList<ExtremeSolution>[] extremes;
+		private final OrientedCayleyConfigSpace[] oriented;
+		private final int[] probes;
+		private final int from, to;
+
+		TypeTask(TDLinkage td, ArrayList<RealizationType> types,
+				ArrayList<ExtremeSolution>[] extremes,
+				OrientedCayleyConfigSpace[] oriented, int[] probes, int from,
+				int to) {
+			this.td = td;
+			this.types = types;
+			this.extremes = extremes;
+			this.oriented = oriented;
+			this.probes = probes;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from <= TYPES_PER_TASK) {
+				for (int k = from; k < to; ++k)
+					oriented[k] = genOrientedCCS(td, types.get(k), extremes,
+							true, probes, k);
+				return;
+			}
+			int mid = (from + to) >>> 1;
+			invokeAll(new TypeTask(td, types, extremes, oriented, probes,
+					from, mid), new TypeTask(td, types, extremes, oriented,
+					probes, mid, to));
+		}
+	}
+
+	/**
+	 * Solve t, the i-th extreme linkage, at both ends of its extreme interval
+	 */
+	private static ArrayList<ExtremeSolution> solveExtreme(TDLinkage td,
+			TDLinkage t, int i) {
+		ArrayList<ExtremeSolution> result = new ArrayList<ExtremeSolution>();
+		// Debug.warnMsg(i+"th extreme graph:"+t);
+		Interval interval = td.extremeInterval(td.getConstructionStep(i));
+		Debug.msg(i + "th extreme Interval:" + interval);
+
+		for (double length : interval.toArray()) {
+			// added Accuracy ...
+			// ??? May return duplicate result, Why? -- come from
+			// reflection?
+			ArrayList<Realization> solutions = t.tryRealize(length);
+			Debug.msg("extreme l:" + length + "; extreme solution size:"
+					+ solutions.size());
+
+			for (Realization g : solutions) {
+				// System.out.println(g.printPoints());
+				double distance = g.length(td.getBaseNonedge());
+				RealizationType extremeSolType = td.getForwardSolutionType(g,
+						i);
+				result.add(new ExtremeSolution(i, length, distance,
+						extremeSolType));
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Find the types whose oriented CCS may be non-empty, by a depth-first
+	 * search over the prefix tree of orientations. A prefix of k orientations
+	 * is kept only if its first k steps are realizable for some length of the
+	 * base non-edge. Such lengths form intervals whose endpoints are among the
+	 * distances of the extreme solutions of the first k steps compatible with
+	 * the prefix, so it is enough to probe those distances and the midpoints
+	 * between them.
+	 * 
+	 * @return the types whose every prefix is realizable, in the order of
+	 *         {@link RealizationType#generateSolutionTypes(int)}
+	 */
+	private static ArrayList<RealizationType> discoverTypes(TDLinkage td,
+			ArrayList<ExtremeSolution>[] extremes) {
+		ArrayList<RealizationType> types = new ArrayList<RealizationType>();
+		discoverTypes(td, extremes, new RealizationType(extremes.length), 0,
+				types);
+		Collections.sort(types, RealizationType.GENERATION_ORDER);
+		Debug.msg("# of discovered types: " + types.size());
+		return types;
+	}
+
+	/**
+	 * @param prefix
+	 *            orientations of the first depth steps, 0 for the rest
+	 */
+	private static void discoverTypes(TDLinkage td,
+			ArrayList<ExtremeSolution>[] extremes, RealizationType prefix,
+			int depth, ArrayList<RealizationType> types) {
+		if (depth == prefix.getSize()) {
+			types.add(prefix.clone());
+			return;
+		}
+		for (int o = -1; o <= 1; o += 2) {
+			prefix.setOrientation(depth, o);
+			if (prefixRealizable(td, extremes, prefix, depth + 1))
+				discoverTypes(td, extremes, prefix, depth + 1, types);
+		}
+		prefix.setOrientation(depth, 0);
+	}
+
+	/**
+	 * @return whether the first steps steps of prefix are realizable for some
+	 *         length of the base non-edge
+	 */
+	private static boolean prefixRealizable(TDLinkage td,
+			ArrayList<ExtremeSolution>[] extremes, RealizationType prefix,
+			int steps) {
+		CandidateSet candidates = new CandidateSet(TDLinkage.ACCURACY);
+		for (int i = 0; i < steps; ++i)
+			for (ExtremeSolution e : extremes[i])
+				if (prefix.compatible(e.type))
+					candidates.add(e.distance);
+		for (int k = 0; k < candidates.size(); ++k) {
+			double cur = candidates.get(k);
+			if (td.realizable(cur, prefix, steps))
+				return true;
+			if (k + 1 < candidates.size()
+					&& td.realizable((cur + candidates.get(k + 1)) / 2,
+							prefix, steps))
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Collect the candidate endpoints of a type from the extreme solutions, in
+	 * step order, and check them
+	 * 
+	 * @param parallel
+	 *            whether to probe the candidates in fork-join tasks
+	 * @param probes
+	 *            probes[k] is set to the number of lengths probed
+	 * @return null if the type has no realization
+	 */
+	private static OrientedCayleyConfigSpace genOrientedCCS(TDLinkage td,
+			RealizationType type, ArrayList<ExtremeSolution>[] extremes,
+			boolean parallel, int[] probes, int k) {
+		CandidateSet typeCandidates = new CandidateSet(TDLinkage.ACCURACY);
+		for (ArrayList<ExtremeSolution> solutions : extremes) {
+			for (ExtremeSolution e : solutions) {
+				if (!type.compatible(e.type))
+					continue;
+				if (typeCandidates.add(e.distance))
+					Debug.msg("for type " + type + ", add solution of "
+							+ e.length + " to candidates: " + e.distance);
+			}
+		}
+		if (typeCandidates.isEmpty())
+			return null;
+		Debug.msg("for type " + type + ", sorted candidates:" + typeCandidates);
+
+		// Check candidate points & set up intervals
+		CandidateProbes typeProbes = new CandidateProbes(td, typeCandidates,
+				type);
+		typeProbes.evaluate(parallel);
+		probes[k] = typeProbes.getNumOfProbes();
+		OrientedCayleyConfigSpace orientedCCS = td
+				.genOrientedCCSFromCandidates(typeProbes);
+		if (orientedCCS.isEmpty())
+			return null;
+		return orientedCCS;
+	}
 }
@@ -44,6 +44,11 @@ public class Cluster {
 	// TODO: always store the inital points ... HERE ??
 	// private HashMap<Vertex, Point2D> initPoints;
 
+	/**
+	 * Local-frame coordinates of the vertices, per placement edge
+	 */
+	private HashMap<Edge, LocalFrame> localFrames = new HashMap<Edge, LocalFrame>();
+
 	public Cluster(LinkageGraph g) {
 		graph = g;
 
@@ -56,6 +61,7 @@ public class Cluster {
 		for (Vertex v : vertices)
 			this.vertices.add(v);
 		// initPoints.put(v, p);
+		clearLocalFrames();
 	}
 
 	public String toString() {
@@ -241,4 +247,113 @@ public class Cluster {
 		return points;
 	}
 
+	/**
+	 * @return the coordinates of the vertices other than e.v1() and e.v2() in
+	 *         the frame of e in init: origin at e.v1(), x axis towards e.v2().
+	 *         Cached per edge until clearLocalFrames() is called; the cached
+	 *         frame may be that of the reversed edge.
+	 */
+	LocalFrame getLocalFrame(Edge e, Realization init) {
+		LocalFrame f = localFrames.get(e);
+		if (f == null) {
+			f = new LocalFrame(this, e.v1(), e.v2(), init);
+			localFrames.put(e, f);
+		}
+		return f;
+	}
+
+	/**
+	 * Forget the local frames, e.g. when the initial realization changes
+	 */
+	void clearLocalFrames() {
+		localFrames.clear();
+	}
+
+	/**
+	 * A cluster in the local frame of one of its edges. Once the edge is
+	 * placed, the other vertices are placed by a rotation and a translation.
+	 */
+	static class LocalFrame {
+		final int origin, axis;
+		final int[] members;
+
+		/**
+		 * coordinates of the members along the edge (ex, ey) and along its
+		 * normal (ey, -ex)
+		 */
+		final double[] u, w;
+
+		LocalFrame(Cluster c, Vertex origin, Vertex axis, Realization init) {
+			this.origin = origin.index;
+			this.axis = axis.index;
+
+			Point2D o = init.getPoint(origin), a = init.getPoint(axis);
+			double d = o.distance(a);
+			double ex = (a.x() - o.x()) / d, ey = (a.y() - o.y()) / d;
+
+			HashSet<Vertex> vset = c.getVertices();
+			vset.remove(origin);
+			vset.remove(axis);
+			int n = vset.size();
+			members = new int[n];
+			u = new double[n];
+			w = new double[n];
+
+			int k = 0;
+			for (Vertex v : vset) {
+				Point2D p = init.getPoint(v);
+				double px = p.x() - o.x(), py = p.y() - o.y();
+				members[k] = v.index;
+				u[k] = px * ex + py * ey;
+				w[k] = px * ey - py * ex;
+				++k;
+			}
+		}
+
+		/**
+		 * Place the members from the current position of origin and axis
+		 */
+		void place(FlatRealization r) {
+			double x1 = r.x[origin], y1 = r.y[origin];
+			double dx = r.x[axis] - x1, dy = r.y[axis] - y1;
+			double d = Math.sqrt(dx * dx + dy * dy);
+			double ex = dx / d, ey = dy / d;
+			for (int k = 0; k < members.length; ++k) {
+				r.x[members[k]] = x1 + u[k] * ex + w[k] * ey;
+				r.y[members[k]] = y1 + u[k] * ey - w[k] * ex;
+			}
+		}
+
+		/**
+		 * Place the members at the given positions of members only
+		 */
+		void place(FlatRealization r, int[] which) {
+			if (which.length == 0)
+				return;
+			double x1 = r.x[origin], y1 = r.y[origin];
+			double dx = r.x[axis] - x1, dy = r.y[axis] - y1;
+			double d = Math.sqrt(dx * dx + dy * dy);
+			double ex = dx / d, ey = dy / d;
+			for (int k : which) {
+				r.x[members[k]] = x1 + u[k] * ex + w[k] * ey;
+				r.y[members[k]] = y1 + u[k] * ey - w[k] * ex;
+			}
+		}
+
+		/**
+		 * Place the members for the k-th sample of a batch
+		 */
+		void place(RealizationBatch b, int k) {
+			double[][] x = b.x, y = b.y;
+			double x1 = x[origin][k], y1 = y[origin][k];
+			double dx = x[axis][k] - x1, dy = y[axis][k] - y1;
+			double d = Math.sqrt(dx * dx + dy * dy);
+			double ex = dx / d, ey = dy / d;
+			for (int j = 0; j < members.length; ++j) {
+				x[members[j]][k] = x1 + u[j] * ex + w[j] * ey;
+				y[members[j]][k] = y1 + u[j] * ey - w[j] * ex;
+			}
+		}
+	}
+
 }
\ No newline at end of file
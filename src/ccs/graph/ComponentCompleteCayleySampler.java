@@ -42,16 +42,20 @@ public class ComponentCompleteCayleySampler implements
 			OrientedInterval n) {
 		ArrayList<SamplePoint<ArrayList<Double>>> list = new ArrayList<SamplePoint<ArrayList<Double>>>();
 
+		double[] cayley = new double[samplesPerNode];
 		for (int i = 0; i < samplesPerNode; ++i) {
-			ArrayList<Double> l = new ArrayList<Double>();
-
 			double percentage = (double) i / samplesPerNode;
-			double cayley = n.sampleCayleyAt(percentage);
-			Realization g = t.tryRealize(cayley, n.getSolutionType());
-			assert (g != null);
+			cayley[i] = n.sampleCayleyAt(percentage);
+		}
+		RealizationBatch b = t.realizeBatch(cayley, n.getSolutionType());
+
+		for (int i = 0; i < samplesPerNode; ++i) {
+			ArrayList<Double> l = new ArrayList<Double>();
+			assert (b.isFeasible(i));
 			for (Edge e : t.completeCayleyVector()) {
-				double le = g.length(e);
-				l.add(le);
+				double dx = b.x(e.v1(), i) - b.x(e.v2(), i);
+				double dy = b.y(e.v1(), i) - b.y(e.v2(), i);
+				l.add(Math.sqrt(dx * dx + dy * dy));
 			}
 			list.add(new SamplePoint<ArrayList<Double>>(l));
 		}
@@ -37,11 +37,15 @@ public class ComponentRealizationsSampler implements NodeSampler<Realization> {
 		
 		int spn = Math.max(samplesPerNode, (int)(n.getLength()/ACCURACY));
 
+		double[] cayley = new double[spn];
 		for (int i = 0; i < spn; ++i) {
 			double percentage = (double) i / spn;
-			double cayley = n.sampleCayleyAt(percentage);
+			cayley[i] = n.sampleCayleyAt(percentage);
+		}
+		RealizationBatch b = t.realizeBatch(cayley, n.getSolutionType());
 
-			Realization g = t.tryRealize(cayley,n.getSolutionType());
+		for (int i = 0; i < spn; ++i) {
+			Realization g = b.getRealization(i);
 			assert (g != null);
 			/*// ad-hoc modification
 			double pp = percentage;
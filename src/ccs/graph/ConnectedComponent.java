@@ -18,11 +18,11 @@
 package ccs.graph;
 
 import java.util.ArrayList;
-import java.util.LinkedList;
+import java.util.Arrays;
 import java.util.ListIterator;
+import java.util.concurrent.RecursiveAction;
 
 import ui.Debug;
-import ui.TDLinkageModel;
 
 public class ConnectedComponent extends ContinuousMotion {
 
@@ -41,6 +41,10 @@ public class ConnectedComponent extends ContinuousMotion {
 		return startNode();
 	}
 
+	/**
+	 * @return the component through g1, walked on the interval graph of the
+	 *         CCS of t
+	 */
 	public static ConnectedComponent findComponent(TDLinkage t, Realization g1) {
 		double startl = g1.length(t.getBaseNonedge());
 		RealizationType startType = t.getForwardSolutionType(g1);
@@ -50,108 +54,57 @@ public class ConnectedComponent extends ContinuousMotion {
 
 		assert (startI != null);
 
-		ConnectedComponent component = new ConnectedComponent(t);
-
 		// Using the entire interval as start node
-		double endl = startI.toArray()[0];
-		startl = startI.toArray()[1];
-		OrientedInterval startNode = new OrientedInterval(startl, endl, startI,
-				startType);
-
-		component.add(startNode);
-
-		RealizationType type = startType;
-
-		while (true) {
-			Debug.msg("from end point: " + endl);
-
-			// Flip the orientation of extreme construction step
-			Realization g = t.tryRealize(endl, type);
-			RealizationType extremeType = t.getForwardSolutionType(g);
-			if (!extremeType.isExtreme()) {
-				Debug.warnMsg(extremeType + "");
-				Debug.warnMsg(endl + "");
-				for (int i = 0; i < TDLinkageModel.getInstance()
-						.getNumOfConstructStep(); ++i)
-					Debug.msg(i
-							+ ":"
-							+ TDLinkageModel.getInstance().getConstructionStep(
-									i));
-
-			}
-			assert (extremeType.isExtreme());
-			int zeroIndex = extremeType.indexOfZero();
-			type.flipOrientation(zeroIndex);
-
-			OrientedCayleyConfigSpace o = t.cayleyConfigSpace
-					.getOrientedCCS(type);
-			assert (o != null);
-			Interval curI = o.getContainingInterval(endl);
-			assert (curI != null);
-
-			if (o == startO && curI == startI) {
-				Debug.msg("BACK TO START. ");
-				// Only contains the start node once.
-				/* addNode(startl, startI, startO, 0); */
-				return component;
-			}
-
-			// continue finding
-			startl = endl;
-			if (Math.abs(endl - curI.lower) < TDLinkage.ACCURACY) {
-				endl = curI.upper;
-			} else {
-				assert (Math.abs(endl - curI.upper) < TDLinkage.ACCURACY);
-				endl = curI.lower;
-			}
-			OrientedInterval n = new OrientedInterval(startl, endl, curI, type);
-			component.add(n);
-		}
+		IntervalGraph graph = t.cayleyConfigSpace.getIntervalGraph(t);
+		return graph.component(t, graph.indexOf(startO, startI));
 	}
 
 	/**
-	 * @return a list of all connected components of t
+	 * @return a list of all connected components of t, each starting at its
+	 *         first interval in the order of the oriented CCSs
 	 */
-	public static ArrayList<ConnectedComponent> findAllComponents(TDLinkage t) {
+	public static ArrayList<ConnectedComponent> findAllComponents(
+			final TDLinkage t) {
+		final IntervalGraph graph = t.cayleyConfigSpace.getIntervalGraph(t);
 		ArrayList<ConnectedComponent> list = new ArrayList<ConnectedComponent>();
 
-		// 1. list every intervals from every Occs.
-		LinkedList<TwoTuple<RealizationType, Interval>> intervalList = new LinkedList<TwoTuple<RealizationType, Interval>>();
-		for (OrientedCayleyConfigSpace oc : t.cayleyConfigSpace
-				.getOrientedCCSs()) {
-			RealizationType type = oc.getSolutionType().clone();
-			for (Interval i : oc.getIntervals()) {
-				intervalList.add(new TwoTuple<RealizationType, Interval>(type,
-						i));
+		if (t.isParallelComponents() && graph.isConsistent()) {
+			// 1. label the intervals by component
+			final int[] seeds = graph.componentSeeds();
+
+			// 2. walk the components from their first intervals; the walks
+			// share nothing but the graph
+			final ConnectedComponent[] components = new ConnectedComponent[seeds.length];
+			final ArrayList<RecursiveAction> tasks = new ArrayList<RecursiveAction>();
+			for (int k = 0; k < seeds.length; ++k) {
+				final int c = k;
+				tasks.add(new RecursiveAction() {
+					private static final long serialVersionUID = 1L;
+
+					@Override
+					protected void compute() {
+						components[c] = graph.component(t, seeds[c]);
+					}
+				});
 			}
-		}
-
-		// 2. for each interval:
-		while (!intervalList.isEmpty()) {
-			// (1) gen component.
-			TwoTuple<RealizationType, Interval> orientedInt = intervalList
-					.getFirst();
-			RealizationType type = orientedInt.getFirst();
-			Interval inv = orientedInt.getSecond();
-			double lf = (inv.lower + inv.upper) / 2;
-			// Realization realization = t.solve(lf, type);
-			Realization realization = t.tryRealize(lf, type);
-			assert (realization != null);
-
-			Debug.msg("remove first oriented interval:" + orientedInt);
-
-			ConnectedComponent component = findComponent(t, realization);
-			list.add(component);
-
-			// (2) remove the intervals passed by the component from the list of
-			// intervals
-			for (OrientedInterval n : component) {
-				TwoTuple<RealizationType, Interval> nTuple = new TwoTuple<RealizationType, Interval>(
-						n.getSolutionType().clone(), n.getInterval());
-				Debug.msg("interval list:" + intervalList);
-				Debug.msg("interval to remove:" + nTuple);
-				boolean b = intervalList.remove(nTuple);
-				assert (b);
+			TDLinkage.solvePool.invoke(new RecursiveAction() {
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				protected void compute() {
+					invokeAll(tasks);
+				}
+			});
+			list.addAll(Arrays.asList(components));
+		} else {
+			// walk from each interval not passed by a component yet
+			boolean[] visited = new boolean[graph.size()];
+			for (int i = 0; i < graph.size(); ++i) {
+				if (visited[i])
+					continue;
+				Debug.msg("first unvisited oriented interval: "
+						+ graph.interval(i));
+				list.add(graph.component(t, i, visited));
 			}
 		}
 		Debug.msg("total # of components:" + list.size(), 0);
@@ -0,0 +1,199 @@
+/*
+ This file is part of CayMos.
+
+ CayMos is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ CayMos is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ccs.graph;
+
+import java.util.ArrayList;
+
+/**
+ * The construction sequence of a {@link TDLinkage} compiled into primitive
+ * arrays: vertex indices, bar lengths and the local frames of the clusters in
+ * the initial realization. Built once per construction sequence and initial
+ * realization, so that each solve is a loop over arrays.
+ */
+class ConstructionPlan {
+	final int numOfSteps;
+
+	/**
+	 * Indices of the base non-edge
+	 */
+	final int base1, base2;
+
+	/**
+	 * Indices of the base pair of vertices and the step vertex, per step
+	 */
+	final int[] v1, v2, v;
+
+	/**
+	 * Bar lengths (v1, v) and (v2, v), per step
+	 */
+	final double[] r1, r2;
+
+	/**
+	 * c1 in the frame of (v1, v) and c2 in the frame of (v2, v), per step
+	 */
+	final Cluster.LocalFrame[] c1, c2;
+
+	/**
+	 * Positions in c1[i].members and c2[i].members of the vertices that later
+	 * steps read, i.e. the only cluster vertices a feasibility check has to
+	 * place
+	 */
+	final int[][] needed1, needed2;
+
+	/**
+	 * clusters whose local frames are used by this plan
+	 */
+	private final ArrayList<Cluster> clusters = new ArrayList<Cluster>();
+
+	ConstructionPlan(TDLinkage t) {
+		numOfSteps = t.getNumOfConstructStep();
+		base1 = t.getBaseNonedge().v1().index;
+		base2 = t.getBaseNonedge().v2().index;
+		v1 = new int[numOfSteps];
+		v2 = new int[numOfSteps];
+		v = new int[numOfSteps];
+		r1 = new double[numOfSteps];
+		r2 = new double[numOfSteps];
+		c1 = new Cluster.LocalFrame[numOfSteps];
+		c2 = new Cluster.LocalFrame[numOfSteps];
+		Realization init = t.getInitRealization();
+
+		for (int i = 0; i < numOfSteps; ++i) {
+			ConstructionStep s = t.getConstructionStep(i);
+			assert (s.v1().index < s.v2().index);
+			v1[i] = s.v1().index;
+			v2[i] = s.v2().index;
+			v[i] = s.v().index;
+			r1[i] = t.barLength(s.v1(), s.v());
+			r2[i] = t.barLength(s.v2(), s.v());
+			c1[i] = s.c1().getLocalFrame(new Edge(s.v1(), s.v()), init);
+			c2[i] = s.c2().getLocalFrame(new Edge(s.v2(), s.v()), init);
+			clusters.add(s.c1());
+			clusters.add(s.c2());
+		}
+
+		// every vertex is placed by one step only, so a vertex is needed iff
+		// some step reads it
+		boolean[] read = new boolean[t.getIndexBound()];
+		for (int i = 0; i < numOfSteps; ++i) {
+			read[v1[i]] = read[v2[i]] = true;
+			read[c1[i].origin] = read[c1[i].axis] = true;
+			read[c2[i].origin] = read[c2[i].axis] = true;
+		}
+		needed1 = new int[numOfSteps][];
+		needed2 = new int[numOfSteps][];
+		for (int i = 0; i < numOfSteps; ++i) {
+			needed1[i] = readMembers(c1[i], read);
+			needed2[i] = readMembers(c2[i], read);
+		}
+	}
+
+	private static int[] readMembers(Cluster.LocalFrame f, boolean[] read) {
+		int n = 0;
+		for (int u : f.members)
+			if (read[u])
+				++n;
+		int[] which = new int[n];
+		n = 0;
+		for (int k = 0; k < f.members.length; ++k)
+			if (read[f.members[k]])
+				which[n++] = k;
+		return which;
+	}
+
+	/**
+	 * Place the step vertex of step i from the current position of its base
+	 * pair of vertices
+	 *
+	 * @return false if step i is not realizable
+	 */
+	boolean placeStep(int i, FlatRealization r, int orient) {
+		return r.place(v[i], r.x[v1[i]], r.y[v1[i]], r.x[v2[i]], r.y[v2[i]],
+				r1[i], r2[i], orient);
+	}
+
+	/**
+	 * Transform the two clusters of step i, after its step vertex is placed
+	 */
+	void placeClusters(int i, FlatRealization r) {
+		c1[i].place(r);
+		c2[i].place(r);
+	}
+
+	/**
+	 * Whether a realization of the given type exists, with the base non-edge
+	 * already placed in r. Places only the vertices read by later steps and
+	 * stops at the first infeasible step.
+	 */
+	boolean feasible(FlatRealization r, RealizationType forward) {
+		return feasible(r, forward, numOfSteps);
+	}
+
+	/**
+	 * Same as {@link #feasible(FlatRealization, RealizationType)}, but only
+	 * checks the first steps steps
+	 */
+	boolean feasible(FlatRealization r, RealizationType forward, int steps) {
+		return infeasibleStep(r, forward, steps) < 0;
+	}
+
+	/**
+	 * Same as {@link #feasible(FlatRealization, RealizationType, int)}, but
+	 * tells which step failed
+	 * 
+	 * @return the first step that is not realizable, or -1 if the first steps
+	 *         steps are
+	 */
+	int infeasibleStep(FlatRealization r, RealizationType forward, int steps) {
+		assert (steps <= numOfSteps);
+		for (int i = 0; i < steps; ++i) {
+			if (!placeStep(i, r, forward.getOrientation(i)))
+				return i;
+			c1[i].place(r, needed1[i]);
+			c2[i].place(r, needed2[i]);
+		}
+		return -1;
+	}
+
+	/**
+	 * Place the step vertex of step i for the k-th sample of a batch
+	 */
+	boolean placeStep(int i, RealizationBatch b, int k, int orient) {
+		double[][] x = b.x, y = b.y;
+		return b.record(k, Util.solve(x[v1[i]][k], y[v1[i]][k], x[v2[i]][k],
+				y[v2[i]][k], r1[i], r2[i], orient, b.tolerance, x[v[i]], k,
+				y[v[i]], k));
+	}
+
+	/**
+	 * Transform the two clusters of step i for the k-th sample of a batch
+	 */
+	void placeClusters(int i, RealizationBatch b, int k) {
+		c1[i].place(b, k);
+		c2[i].place(b, k);
+	}
+
+	/**
+	 * Forget the local frames of the clusters, which are computed from the
+	 * initial realization
+	 */
+	void clearLocalFrames() {
+		for (Cluster c : clusters)
+			c.clearLocalFrames();
+	}
+}
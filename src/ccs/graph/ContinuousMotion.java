@@ -72,6 +72,14 @@ public abstract class ContinuousMotion implements List<OrientedInterval> {
 		return orientedIntervals.add(n);
 	}
 
+	/**
+	 * Append the part of interval from start to end, of the given type
+	 */
+	public boolean add(double start, double end, Interval interval,
+			RealizationType type) {
+		return add(new OrientedInterval(start, end, interval, type));
+	}
+
 	public OrientedInterval get(int index) {
 		return orientedIntervals.get(index);
 	}
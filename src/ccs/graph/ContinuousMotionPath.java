@@ -122,6 +122,13 @@ public class ContinuousMotionPath extends ContinuousMotion {
 	 * n.getSolutionType()); return g; }
 	 */
 
+	/**
+	 * Find the motion from g1 to g2 along their component, going whichever way
+	 * around the component is shorter by the path metric of t; the way
+	 * findComponent walks wins a tie.
+	 * 
+	 * @return null if g1 and g2 are not on the same component
+	 */
 	public static ContinuousMotionPath findPath(TDLinkage t, Realization g1, Realization g2) {
 		Edge baseNonEdge = t.getBaseNonedge();
 		double l1 = g1.length(baseNonEdge), l2 = g2.length(baseNonEdge);
@@ -142,25 +149,57 @@ public class ContinuousMotionPath extends ContinuousMotion {
 				break;
 			}
 		}
-		if (endIndex >= 0) {
-			List<OrientedInterval> nodesOnPath = component.subList(0, endIndex + 1);
-			ContinuousMotionPath p = new ContinuousMotionPath(t);
-			p.addAll(nodesOnPath);
-
-			OrientedInterval start = p.startNode();
-			OrientedInterval newStart = new OrientedInterval(l1, start.getEnd(), start.getInterval(),
-					start.getSolutionType());
-			p.set(0, newStart);
-			OrientedInterval end = p.endNode();
-			OrientedInterval newEnd = new OrientedInterval(end.getStart(), l2, end.getInterval(),
-					end.getSolutionType());
-			p.set(p.size() - 1, newEnd);
+		if (endIndex < 0)
+			return null; // ????
 
+		// along the component
+		List<OrientedInterval> nodesOnPath = component.subList(0, endIndex + 1);
+		ContinuousMotionPath p = new ContinuousMotionPath(t);
+		p.addAll(nodesOnPath);
+
+		OrientedInterval start = p.startNode();
+		OrientedInterval newStart = new OrientedInterval(l1, start.getEnd(), start.getInterval(),
+				start.getSolutionType());
+		p.set(0, newStart);
+		OrientedInterval end = p.endNode();
+		OrientedInterval newEnd = new OrientedInterval(end.getStart(), l2, end.getInterval(),
+				end.getSolutionType());
+		p.set(p.size() - 1, newEnd);
+		if (endIndex == 0)
 			return p;
-		} else {
-			return null; // ????
+
+		// the other way: back through the start of the start node, and the
+		// rest of the component reversed
+		ContinuousMotionPath q = new ContinuousMotionPath(t);
+		start = component.startNode();
+		q.add(new OrientedInterval(l1, start.getStart(), start.getInterval(),
+				start.getSolutionType()));
+		for (int i = component.size() - 1; i > endIndex; --i) {
+			OrientedInterval n = component.get(i);
+			q.add(new OrientedInterval(n.getEnd(), n.getStart(), n.getInterval(),
+					n.getSolutionType()));
 		}
+		end = component.get(endIndex);
+		q.add(new OrientedInterval(end.getEnd(), l2, end.getInterval(),
+				end.getSolutionType()));
 
+		int metric = t.getPathMetric();
+		return (q.cost(metric) < p.cost(metric) ? q : p);
+	}
+
+	/**
+	 * @param metric
+	 *            {@link TDLinkage#PATH_CAYLEY_LENGTH}: the total change of the
+	 *            base non-edge length; {@link TDLinkage#PATH_FLIPS}: the
+	 *            number of orientation flips
+	 */
+	public double cost(int metric) {
+		if (metric == TDLinkage.PATH_FLIPS)
+			return size() - 1;
+		double l = 0;
+		for (OrientedInterval n : this)
+			l += n.getLength();
+		return l;
 	}
 
 	@Override
@@ -0,0 +1,108 @@
+/*
+ This file is part of CayMos.
+
+ CayMos is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ CayMos is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ccs.graph;
+
+/**
+ * A realization stored as two flat coordinate arrays indexed by
+ * {@link Vertex#index}. Used internally by the {@link TDLinkage} solver, and
+ * converted to a {@link Realization} only when handed out.
+ */
+class FlatRealization {
+	double[] x;
+	double[] y;
+
+	/**
+	 * how far apart two circles may miss each other and still be placed, see
+	 * {@link Util#solve(double, double, double, double, double, double, int,
+	 * double, double[], int, double[], int)}
+	 */
+	double tolerance = 0;
+
+	/**
+	 * the largest slack used by place() so far
+	 */
+	double slack = 0;
+
+	/**
+	 * @param capacity
+	 *            an upper bound (exclusive) on the vertex indices to be stored
+	 */
+	FlatRealization(int capacity) {
+		x = new double[capacity];
+		y = new double[capacity];
+	}
+
+	FlatRealization(FlatRealization that) {
+		x = that.x.clone();
+		y = that.y.clone();
+		tolerance = that.tolerance;
+		slack = that.slack;
+	}
+
+	int capacity() {
+		return x.length;
+	}
+
+	void setPoint(Vertex v, double px, double py) {
+		x[v.index] = px;
+		y[v.index] = py;
+	}
+
+	void setPoint(Vertex v, Point2D p) {
+		setPoint(v, p.x(), p.y());
+	}
+
+	/**
+	 * Copy all coordinates from another flat realization of the same capacity
+	 */
+	void setPoints(FlatRealization that) {
+		assert (that.capacity() == capacity());
+		System.arraycopy(that.x, 0, x, 0, x.length);
+		System.arraycopy(that.y, 0, y, 0, y.length);
+	}
+
+	/**
+	 * Place vertex v by ruler-and-compass from two base points. Same as
+	 * {@link Util#solve(Point2D, Point2D, double, double, int)}, but writes the
+	 * result into this realization instead of allocating points.
+	 *
+	 * @param orient
+	 *            +1: v1->v clockwise from v1->v2; -1: counterclockwise; 0:
+	 *            collinear | don't care
+	 * @return false if no solution exists
+	 */
+	boolean place(int v, double x1, double y1, double x2, double y2,
+			double r1, double r2, int orient) {
+		double s = Util.solve(x1, y1, x2, y2, r1, r2, orient, tolerance, x, v,
+				y, v);
+		if (s > slack)
+			slack = s;
+		return s >= 0;
+	}
+
+	/**
+	 * @return a realization of g holding the coordinates of this flat
+	 *         realization
+	 */
+	Realization toRealization(LinkageGraph g) {
+		Realization r = new Realization(g);
+		for (Vertex v : g.getVertices())
+			r.setPoint(v, new Point2D(x[v.index], y[v.index]));
+		return r;
+	}
+}
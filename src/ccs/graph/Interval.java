@@ -23,6 +23,18 @@ public class Interval implements Comparable<Interval> {
 	public double lower;
 	public double upper;
 
+	/**
+	 * bound on the distance of lower and upper to the true endpoints; smaller
+	 * than ACCURACY if the endpoints are refined
+	 */
+	public double error = TDLinkage.ACCURACY;
+
+	/**
+	 * construction steps that become extreme at lower and at upper; -1 if not
+	 * known
+	 */
+	int lowerStep = -1, upperStep = -1;
+
 	public Interval(double lower, double upper) {
 		super();
 		assert (lower <= upper);
@@ -97,6 +109,18 @@ public class Interval implements Comparable<Interval> {
 		return v >= lower && v <= upper;
 	}
 
+	/**
+	 * @return the construction step that becomes extreme at v, an endpoint of
+	 *         this interval; -1 if not known
+	 */
+	int extremeStepAt(double v) {
+		if (v == lower && lowerStep >= 0)
+			return lowerStep;
+		if (v == upper)
+			return upperStep;
+		return -1;
+	}
+
 	public double[] toArray() {
 		double arr[] = { lower, upper };
 		return arr;
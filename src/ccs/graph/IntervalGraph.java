@@ -0,0 +1,498 @@
+/*
+ This file is part of CayMos.
+
+ CayMos is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ CayMos is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ccs.graph;
+
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+
+import ui.Debug;
+
+/**
+ * The oriented intervals of a {@link CayleyConfigSpace} as a graph: leaving
+ * an interval at one of its endpoints, the construction step that is extreme
+ * there flips its orientation, and the motion enters an interval of the
+ * flipped type at the same length. Each endpoint has exactly one such
+ * neighbor, so a connected component is a cycle of the graph. An isolated
+ * point is extreme in two steps, and is left through one of them at each of
+ * its two ends.
+ * <p>
+ * The neighbors are found once, when the graph is built; refined endpoints
+ * know their extreme step, the others are solved for it. Walking the graph
+ * then needs no solves.
+ */
+class IntervalGraph {
+	/**
+	 * ends of an interval
+	 */
+	final static int LOWER = 0, UPPER = 1;
+
+	/**
+	 * oriented CCS and interval of each node, in the order of
+	 * {@link CayleyConfigSpace#getOrientedCCSs()} and of the intervals
+	 */
+	private final OrientedCayleyConfigSpace[] owners;
+	private final Interval[] intervals;
+
+	/**
+	 * first node of each oriented CCS
+	 */
+	private final IdentityHashMap<OrientedCayleyConfigSpace, Integer> firstNode = new IdentityHashMap<OrientedCayleyConfigSpace, Integer>();
+
+	/**
+	 * next[2 * i + end] = 2 * j + e: leaving node i at the given end enters
+	 * node j at its end e; -1 if no neighbor was found
+	 */
+	private final int[] next;
+
+	/**
+	 * extreme steps of each node that is a point, in increasing order; null
+	 * for the other nodes
+	 */
+	private final int[][] pointSteps;
+
+	/**
+	 * whether every link is matched by the link back, so that the components
+	 * are disjoint cycles
+	 */
+	private final boolean consistent;
+
+	/**
+	 * built on first use; null until then
+	 */
+	private volatile ComponentIndex componentIndex;
+
+	IntervalGraph(TDLinkage t, CayleyConfigSpace ccs) {
+		int n = 0;
+		for (OrientedCayleyConfigSpace o : ccs.getOrientedCCSs()) {
+			firstNode.put(o, n);
+			n += o.intervals.size();
+		}
+		owners = new OrientedCayleyConfigSpace[n];
+		intervals = new Interval[n];
+		n = 0;
+		for (OrientedCayleyConfigSpace o : ccs.getOrientedCCSs()) {
+			for (Interval in : o.intervals) {
+				owners[n] = o;
+				intervals[n] = in;
+				++n;
+			}
+		}
+
+		pointSteps = new int[n][];
+		for (int i = 0; i < n; ++i)
+			if (intervals[i].lower == intervals[i].upper)
+				pointSteps[i] = extremeSteps(t, intervals[i].lower,
+						owners[i].getSolutionType());
+
+		next = new int[2 * n];
+		for (int i = 0; i < n; ++i) {
+			next[2 * i + LOWER] = neighbor(t, ccs, i, LOWER);
+			next[2 * i + UPPER] = neighbor(t, ccs, i, UPPER);
+		}
+		boolean b = true;
+		for (int x = 0; x < 2 * n && b; ++x) {
+			if (next[x] < 0)
+				continue;
+			int y = next[next[x]];
+			// a point with a single extreme step is left the same way at
+			// both ends, and is entered at its lower end
+			b = (y == x || (y >= 0 && y >> 1 == x >> 1
+					&& pointSteps[x >> 1] != null));
+		}
+		consistent = b;
+		if (consistent)
+			Debug.msg("interval graph: " + n + " nodes");
+		else
+			Debug.warnMsg("interval graph: " + n
+					+ " nodes, inconsistent; walks fall back to serial");
+	}
+
+	/**
+	 * @return the construction steps that are extreme in the realization of
+	 *         type at length l, in increasing order; empty if there is none
+	 */
+	private static int[] extremeSteps(TDLinkage t, double l,
+			RealizationType type) {
+		Realization g = t.tryRealize(l, type);
+		if (g == null) {
+			Debug.warnMsg(type + " not realizable at point " + l);
+			return new int[0];
+		}
+		RealizationType extremeType = t.getForwardSolutionType(g);
+		int n = 0;
+		int[] steps = new int[extremeType.getSize()];
+		for (int k = 0; k < steps.length; ++k)
+			if (extremeType.getOrientation(k) == 0)
+				steps[n++] = k;
+		return Arrays.copyOf(steps, n);
+	}
+
+	/**
+	 * Flip the extreme step at the given end of node i and find the interval
+	 * of the flipped type at the same length
+	 */
+	private int neighbor(TDLinkage t, CayleyConfigSpace ccs, int i, int end) {
+		Interval in = intervals[i];
+		double l = (end == LOWER ? in.lower : in.upper);
+		RealizationType type = owners[i].getSolutionType().clone();
+
+		int step;
+		if (pointSteps[i] != null) {
+			// the motion passes a point through its two extreme steps, one
+			// at each end
+			int[] steps = pointSteps[i];
+			if (steps.length == 0)
+				return -1;
+			step = steps[end == UPPER && steps.length > 1 ? 1 : 0];
+		} else {
+			step = in.extremeStepAt(l);
+		}
+		if (step < 0) {
+			Realization g = t.tryRealize(l, type);
+			if (g == null) {
+				Debug.warnMsg(type + " not realizable at end point " + l);
+				return -1;
+			}
+			RealizationType extremeType = t.getForwardSolutionType(g);
+			if (!extremeType.isExtreme()) {
+				Debug.warnMsg(extremeType + " not extreme at end point " + l);
+				return -1;
+			}
+			step = extremeType.indexOfZero();
+		}
+		type.flipOrientation(step);
+
+		OrientedCayleyConfigSpace o = ccs.getOrientedCCS(type);
+		Interval cur = (o == null ? null : o.getContainingInterval(l));
+		if (cur == null) {
+			Debug.warnMsg("no interval of " + type + " at end point " + l);
+			return -1;
+		}
+		int j = indexOf(o, cur);
+		if (pointSteps[j] != null) {
+			// enter a point at the end that is left through the same step
+			int[] steps = pointSteps[j];
+			return 2 * j
+					+ (steps.length > 1 && steps[1] == step ? UPPER : LOWER);
+		}
+		if (Math.abs(l - cur.lower) < TDLinkage.ACCURACY)
+			return 2 * j + LOWER;
+		if (Math.abs(l - cur.upper) < TDLinkage.ACCURACY)
+			return 2 * j + UPPER;
+		Debug.warnMsg(l + " is not an end point of " + cur + " of " + type);
+		return -1;
+	}
+
+	int size() {
+		return intervals.length;
+	}
+
+	/**
+	 * @return the node of interval in of o, or -1 if there is none
+	 */
+	int indexOf(OrientedCayleyConfigSpace o, Interval in) {
+		Integer first = firstNode.get(o);
+		if (first == null)
+			return -1;
+		int k = o.intervals.indexOf(in);
+		return (k < 0 ? -1 : first + k);
+	}
+
+	OrientedCayleyConfigSpace owner(int i) {
+		return owners[i];
+	}
+
+	Interval interval(int i) {
+		return intervals[i];
+	}
+
+	/**
+	 * @return 2 * j + e if leaving node i at the given end enters node j at
+	 *         its end e, or -1 if no neighbor was found
+	 */
+	int next(int i, int end) {
+		return next[2 * i + end];
+	}
+
+	/**
+	 * @return whether each link from an endpoint is matched by the link back
+	 *         to it. Otherwise, e.g. when the engine misses an endpoint, the
+	 *         walk from a node does not pass every node it is linked to.
+	 */
+	boolean isConsistent() {
+		return consistent;
+	}
+
+	/**
+	 * Label the nodes by component with a union-find over the links, in time
+	 * linear in the number of nodes. Only meaningful if the graph is
+	 * {@link #isConsistent()}.
+	 * 
+	 * @return the first node of each component, in increasing order
+	 */
+	int[] componentSeeds() {
+		int n = size();
+		int[] parent = new int[n];
+		for (int i = 0; i < n; ++i)
+			parent[i] = i;
+		for (int i = 0; i < 2 * n; ++i) {
+			if (next[i] < 0)
+				continue;
+			int r1 = root(parent, i >> 1), r2 = root(parent, next[i] >> 1);
+			// the smaller node is the root
+			if (r1 < r2)
+				parent[r2] = r1;
+			else
+				parent[r1] = r2;
+		}
+		int[] seeds = new int[n];
+		int k = 0;
+		for (int i = 0; i < n; ++i)
+			if (root(parent, i) == i)
+				seeds[k++] = i;
+		return Arrays.copyOf(seeds, k);
+	}
+
+	/**
+	 * Where each node is on its component, for path queries that only need
+	 * to score the paths between two intervals
+	 */
+	class ComponentIndex {
+		/**
+		 * component of each node, numbered in the order of
+		 * {@link IntervalGraph#componentSeeds()}
+		 */
+		final int[] component;
+
+		/**
+		 * position of each node on the walk from the first node of its
+		 * component, the end the walk leaves it at, and the Cayley length of
+		 * the nodes before it on the walk
+		 */
+		private final int[] position, exitEnd;
+		private final double[] before;
+
+		/**
+		 * number of nodes and Cayley length of each component
+		 */
+		private final int[] length;
+		private final double[] total;
+
+		/**
+		 * nodes of each component in the order of the walk, the components
+		 * one after another from offset[c]
+		 */
+		private final int[] order, offset;
+
+		private ComponentIndex(int[] component, int[] position,
+				int[] exitEnd, double[] before, int[] length, double[] total,
+				int[] order, int[] offset) {
+			this.component = component;
+			this.position = position;
+			this.exitEnd = exitEnd;
+			this.before = before;
+			this.length = length;
+			this.total = total;
+			this.order = order;
+			this.offset = offset;
+		}
+
+		/**
+		 * @return the node at the given position on the walk of component c,
+		 *         modulo the number of nodes of c
+		 */
+		int nodeAt(int c, int pos) {
+			int m = length[c];
+			return order[offset[c] + ((pos % m) + m) % m];
+		}
+
+		int position(int i) {
+			return position[i];
+		}
+
+		/**
+		 * @return the end the walk from the first node of the component of
+		 *         node i leaves it at
+		 */
+		int exitEnd(int i) {
+			return exitEnd[i];
+		}
+
+		int numOfNodes(int c) {
+			return length[c];
+		}
+
+		/**
+		 * Score the shorter of the two paths around the component from
+		 * length l1 on node a to length l2 on node b, the same way
+		 * {@link ContinuousMotionPath#findPath(TDLinkage, Realization, Realization)}
+		 * does
+		 * 
+		 * @param metric
+		 *            {@link TDLinkage#PATH_CAYLEY_LENGTH} or
+		 *            {@link TDLinkage#PATH_FLIPS}
+		 * @return the score, or -1 if a and b are on different components
+		 */
+		double cost(int a, double l1, int b, double l2, int metric) {
+			int c = component[a];
+			if (component[b] != c)
+				return -1;
+			if (a == b)
+				return (metric == TDLinkage.PATH_FLIPS ? 0 : Math.abs(l2 - l1));
+			// number of links along the walk, and against it
+			int along = (position[b] - position[a] + length[c]) % length[c];
+			int against = length[c] - along;
+			if (metric == TDLinkage.PATH_FLIPS)
+				return Math.min(along, against);
+
+			double inner = before[b] - before[a] - intervals[a].getLength();
+			if (position[b] < position[a])
+				inner += total[c];
+			double s1 = Math.abs(l1 - endpoint(a, exitEnd[a])) + inner
+					+ Math.abs(l2 - endpoint(b, 1 - exitEnd[b]));
+			inner = before[a] - before[b] - intervals[b].getLength();
+			if (position[b] > position[a])
+				inner += total[c];
+			double s2 = Math.abs(l1 - endpoint(a, 1 - exitEnd[a])) + inner
+					+ Math.abs(l2 - endpoint(b, exitEnd[b]));
+			return Math.min(s1, s2);
+		}
+	}
+
+	double endpoint(int i, int end) {
+		return (end == LOWER ? intervals[i].lower : intervals[i].upper);
+	}
+
+	/**
+	 * @return the component index, or null if the graph is not
+	 *         {@link #isConsistent()} or has an endpoint without a neighbor
+	 */
+	ComponentIndex getComponentIndex() {
+		if (!consistent)
+			return null;
+		ComponentIndex index = componentIndex;
+		if (index == null) {
+			index = buildComponentIndex();
+			if (index == null)
+				return null;
+			componentIndex = index;
+		}
+		return index;
+	}
+
+	private ComponentIndex buildComponentIndex() {
+		int n = size();
+		int[] component = new int[n], position = new int[n], exitEnd = new int[n];
+		double[] before = new double[n];
+		Arrays.fill(component, -1);
+		int[] length = new int[n], order = new int[n], offset = new int[n];
+		double[] total = new double[n];
+		int c = 0, k = 0;
+		for (int seed = 0; seed < n; ++seed) {
+			if (component[seed] >= 0)
+				continue;
+			int cur = seed, end = LOWER, pos = 0;
+			double sum = intervals[seed].getLength();
+			component[seed] = c;
+			exitEnd[seed] = LOWER;
+			offset[c] = k;
+			order[k++] = seed;
+			while (true) {
+				int e = next(cur, end);
+				if (e < 0)
+					return null;
+				cur = e >> 1;
+				if (cur == seed)
+					break;
+				if (component[cur] >= 0)
+					return null;
+				end = 1 - (e & 1);
+				component[cur] = c;
+				position[cur] = ++pos;
+				exitEnd[cur] = end;
+				before[cur] = sum;
+				order[k++] = cur;
+				sum += intervals[cur].getLength();
+			}
+			length[c] = pos + 1;
+			total[c++] = sum;
+		}
+		return new ComponentIndex(component, position, exitEnd, before,
+				Arrays.copyOf(length, c), Arrays.copyOf(total, c), order,
+				Arrays.copyOf(offset, c));
+	}
+
+	private static int root(int[] parent, int i) {
+		while (parent[i] != i) {
+			parent[i] = parent[parent[i]];
+			i = parent[i];
+		}
+		return i;
+	}
+
+	/**
+	 * Walk the cycle through node start, leaving it at its lower end first.
+	 * Each node of the component runs from the length where it is entered to
+	 * the length where it is left; the start node covers its whole interval.
+	 * 
+	 * @throws IllegalStateException
+	 *             if the walk reaches an endpoint without a neighbor, or does
+	 *             not return to start
+	 */
+	ConnectedComponent component(TDLinkage t, int start) {
+		return component(t, start, null);
+	}
+
+	/**
+	 * Same as {@link #component(TDLinkage, int)}, and mark the nodes walked
+	 * through in visited unless it is null
+	 */
+	ConnectedComponent component(TDLinkage t, int start, boolean[] visited) {
+		ConnectedComponent component = new ConnectedComponent(t);
+		if (visited != null)
+			visited[start] = true;
+		Interval startI = intervals[start];
+		double endl = startI.lower;
+		component.add(startI.upper, endl, startI,
+				owners[start].getSolutionType());
+
+		int cur = start, end = LOWER;
+		for (int k = 0; k <= size(); ++k) {
+			int e = next(cur, end);
+			if (e < 0)
+				throw new IllegalStateException("no interval after "
+						+ intervals[cur] + " of "
+						+ owners[cur].getSolutionType() + " at " + endl);
+			cur = e >> 1;
+			if (cur == start) {
+				Debug.msg("BACK TO START. ");
+				return component;
+			}
+			if (visited != null)
+				visited[cur] = true;
+			// leave at the other end
+			end = 1 - (e & 1);
+			Interval curI = intervals[cur];
+			double startl = endl;
+			endl = (end == LOWER ? curI.lower : curI.upper);
+			component.add(startl, endl, curI, owners[cur].getSolutionType());
+		}
+		throw new IllegalStateException("component of " + startI + " of "
+				+ owners[start].getSolutionType() + " does not close");
+	}
+}
@@ -0,0 +1,135 @@
+/*
+ This file is part of CayMos.
+
+ CayMos is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ CayMos is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ccs.graph;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Containment queries on a fixed list of intervals, which may overlap. The
+ * padded endpoints of all intervals are merged into one sorted array; a query
+ * finds its elementary segment by binary search and only checks the intervals
+ * covering that segment with {@link Interval#contains(double)}, so the
+ * ACCURACY tolerance is honored exactly.
+ */
+class IntervalIndex {
+	/**
+	 * Each interval is indexed as [lower - PAD, upper + PAD], a superset of
+	 * the values it contains
+	 */
+	private final static double PAD = 2 * TDLinkage.ACCURACY;
+
+	private final static int[] NONE = new int[0];
+
+	private final Interval[] intervals;
+
+	/**
+	 * sorted distinct padded endpoints
+	 */
+	private final double[] bounds;
+
+	/**
+	 * cover[s]: ascending indices of the intervals covering [bounds[s],
+	 * bounds[s + 1]]
+	 */
+	private final int[][] cover;
+
+	IntervalIndex(List<Interval> l) {
+		intervals = l.toArray(new Interval[l.size()]);
+		int n = intervals.length;
+		double[] b = new double[2 * n];
+		for (int i = 0; i < n; ++i) {
+			b[2 * i] = intervals[i].lower - PAD;
+			b[2 * i + 1] = intervals[i].upper + PAD;
+		}
+		Arrays.sort(b);
+		int m = 0;
+		for (int i = 0; i < b.length; ++i)
+			if (m == 0 || b[i] != b[m - 1])
+				b[m++] = b[i];
+		bounds = Arrays.copyOf(b, m);
+
+		int segments = Math.max(m - 1, 0);
+		int[] count = new int[segments];
+		for (int i = 0; i < n; ++i)
+			for (int s = first(i); s < last(i); ++s)
+				++count[s];
+		cover = new int[segments][];
+		for (int s = 0; s < segments; ++s)
+			cover[s] = (count[s] == 0 ? NONE : new int[count[s]]);
+		Arrays.fill(count, 0);
+		for (int i = 0; i < n; ++i)
+			for (int s = first(i); s < last(i); ++s)
+				cover[s][count[s]++] = i;
+	}
+
+	/**
+	 * @return the first segment covered by the i-th interval
+	 */
+	private int first(int i) {
+		return Arrays.binarySearch(bounds, intervals[i].lower - PAD);
+	}
+
+	/**
+	 * @return one past the last segment covered by the i-th interval
+	 */
+	private int last(int i) {
+		return Arrays.binarySearch(bounds, intervals[i].upper + PAD);
+	}
+
+	int size() {
+		return intervals.length;
+	}
+
+	Interval get(int i) {
+		return intervals[i];
+	}
+
+	/**
+	 * @return ascending indices of the intervals that may contain v; a
+	 *         superset of those that do
+	 */
+	int[] stab(double v) {
+		int s = Arrays.binarySearch(bounds, v);
+		if (s < 0)
+			s = -s - 2; // last bound below v
+		if (s == cover.length)
+			--s; // v is the last bound
+		if (s < 0 || s >= cover.length)
+			return NONE;
+		return cover[s];
+	}
+
+	/**
+	 * @return index of the first interval containing v, or -1 if none
+	 */
+	int indexOf(double v) {
+		for (int i : stab(v))
+			if (intervals[i].contains(v))
+				return i;
+		return -1;
+	}
+
+	/**
+	 * @return the first interval containing v, or null if none
+	 */
+	Interval find(double v) {
+		int i = indexOf(v);
+		return (i < 0 ? null : intervals[i]);
+	}
+}
@@ -23,6 +23,11 @@ public class OrientedCayleyConfigSpace implements CCSInterface{
 	RealizationType forwardSolutionType;
 	ArrayList<Interval> intervals;
 
+	/**
+	 * built on the first query, dropped when an interval is appended
+	 */
+	private volatile IntervalIndex index;
+
 	// private void sort() {
 	// Collections.sort(intervals);
 	// }
@@ -32,11 +37,7 @@ public class OrientedCayleyConfigSpace implements CCSInterface{
 	}
 	
 	public Interval contains(double val) {
-		for (Interval i : intervals) {
-			if (i.contains(val))
-				return i;
-		}
-		return null;
+		return getContainingInterval(val);
 	}
 
 	public ArrayList<Interval> getIntervals() {
@@ -70,15 +71,106 @@ public class OrientedCayleyConfigSpace implements CCSInterface{
 	public void appendInterval(double lower, double upper) {
 		assert (lower > getMin());
 		intervals.add(new Interval(lower, upper));
+		index = null;
 	}
 
-	// TODO: arraylist + binary search?
+	/**
+	 * @return the first interval containing value, or null if none
+	 */
 	public Interval getContainingInterval(double value) {
-		for (Interval interval : intervals) {
-			if (interval.contains(value))
-				return interval;
+		IntervalIndex i = index;
+		if (i == null) {
+			i = new IntervalIndex(intervals);
+			index = i;
+		}
+		return i.find(value);
+	}
+
+	/**
+	 * Move the endpoints of the intervals, by bisection, to within tolerance
+	 * of the lengths where the type stops being realizable, and record the
+	 * construction steps that become extreme there. An endpoint that cannot
+	 * be bracketed, i.e. whose interval is not realizable 2 * ACCURACY inside
+	 * it or is still realizable 2 * ACCURACY outside it, or whose bracket
+	 * cannot be narrowed to tolerance, is left as it is. Isolated points are
+	 * left as they are.
+	 * 
+	 * @param tolerance
+	 *            in (0, ACCURACY)
+	 */
+	void refineEndpoints(TDLinkage td, double tolerance) {
+		assert (tolerance > 0 && tolerance < TDLinkage.ACCURACY);
+		for (int j = 0; j < intervals.size(); ++j) {
+			Interval in = intervals.get(j);
+			if (in.lower == in.upper)
+				continue;
+			double mid = (in.lower + in.upper) / 2;
+			double error = 0;
+
+			double outside = in.lower - 2 * TDLinkage.ACCURACY;
+			if (j > 0)
+				outside = Math.max(outside,
+						(intervals.get(j - 1).upper + in.lower) / 2);
+			double inside = Math.min(in.lower + 2 * TDLinkage.ACCURACY, mid);
+			double[] bracket = bisect(td, outside, inside, tolerance);
+			if (bracket != null) {
+				in.lower = bracket[1];
+				in.lowerStep = (int) bracket[2];
+				error = Math.abs(bracket[1] - bracket[0]);
+			} else {
+				error = TDLinkage.ACCURACY;
+			}
+
+			outside = in.upper + 2 * TDLinkage.ACCURACY;
+			if (j + 1 < intervals.size())
+				outside = Math.min(outside,
+						(in.upper + intervals.get(j + 1).lower) / 2);
+			inside = Math.max(in.upper - 2 * TDLinkage.ACCURACY, mid);
+			bracket = bisect(td, outside, inside, tolerance);
+			if (bracket != null) {
+				in.upper = bracket[1];
+				in.upperStep = (int) bracket[2];
+				error = Math.max(error, Math.abs(bracket[1] - bracket[0]));
+			} else {
+				error = TDLinkage.ACCURACY;
+			}
+			in.error = error;
+		}
+		index = null;
+	}
+
+	/**
+	 * Bisect between a length where the type is not realizable and one where
+	 * it is
+	 * 
+	 * @return {outside, inside, extreme step} with |outside - inside| <=
+	 *         tolerance, or null if the two lengths do not bracket an endpoint
+	 *         or the bracket cannot be narrowed to tolerance
+	 */
+	private double[] bisect(TDLinkage td, double outside, double inside,
+			double tolerance) {
+		if (outside <= 0 || td.infeasibleStep(inside, forwardSolutionType) >= 0)
+			return null;
+		int step = td.infeasibleStep(outside, forwardSolutionType);
+		if (step < 0)
+			return null;
+		while (Math.abs(inside - outside) > tolerance) {
+			double mid = (outside + inside) / 2;
+			if (mid == outside || mid == inside)
+				break;
+			int s = td.infeasibleStep(mid, forwardSolutionType);
+			if (s < 0) {
+				inside = mid;
+			} else {
+				outside = mid;
+				step = s;
+			}
 		}
-		return null;
+		// no tighter than the endpoint found by the engine
+		if (Math.abs(inside - outside) > tolerance)
+			return null;
+		double[] bracket = { outside, inside, step };
+		return bracket;
 	}
 
 	@Override
@@ -0,0 +1,212 @@
+/*
+ This file is part of CayMos.
+
+ CayMos is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ CayMos is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ccs.graph;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.RecursiveAction;
+
+import ui.Debug;
+
+/**
+ * Answers many path queries between realizations of one linkage. Both
+ * endpoints of a query are classified by their forward type and the interval
+ * containing their base non-edge length, and the path is read off the
+ * component index of the interval graph, which is shared by all queries and
+ * never changes. No component is walked per query.
+ * <p>
+ * A service answers for the CCS of the linkage when it was created; create a
+ * new one after the CCS is regenerated. If the interval graph has no
+ * component index, each query falls back to
+ * {@link TDLinkage#findPath(Realization, Realization)}, and a query whose walk
+ * fails has no path.
+ */
+public class PathQueryService {
+	/**
+	 * Queries answered serially by one task of a batch
+	 */
+	private final static int QUERIES_PER_TASK = 32;
+
+	private final TDLinkage t;
+	private final CayleyConfigSpace ccs;
+	private final IntervalGraph graph;
+
+	/**
+	 * null if the graph has none
+	 */
+	private final IntervalGraph.ComponentIndex index;
+	private final int metric;
+
+	public PathQueryService(TDLinkage t) {
+		assert (t.ccsGenerated());
+		this.t = t;
+		this.ccs = t.cayleyConfigSpace;
+		this.graph = ccs.getIntervalGraph(t);
+		this.index = graph.getComponentIndex();
+		this.metric = t.getPathMetric();
+	}
+
+	/**
+	 * Answer the queries on {@link TDLinkage#solvePool}
+	 * 
+	 * @return the path of each query, in the order of the queries; null for a
+	 *         query whose endpoints are not on the same component, or not in
+	 *         the CCS
+	 */
+	public ArrayList<ContinuousMotionPath> findPaths(
+			List<TwoTuple<Realization, Realization>> queries) {
+		ContinuousMotionPath[] paths = new ContinuousMotionPath[queries.size()];
+		TDLinkage.solvePool.invoke(new QueryTask(queries, paths, 0,
+				paths.length));
+		return new ArrayList<ContinuousMotionPath>(Arrays.asList(paths));
+	}
+
+	/**
+	 * Same as {@link TDLinkage#findPath(Realization, Realization)}
+	 * 
+	 * @return null if g1 and g2 are not on the same component, or not in the
+	 *         CCS
+	 */
+	public ContinuousMotionPath findPath(Realization g1, Realization g2) {
+		Edge baseNonEdge = t.getBaseNonedge();
+		double l1 = g1.length(baseNonEdge), l2 = g2.length(baseNonEdge);
+		int a = classify(g1, l1);
+		if (a < 0)
+			return null;
+		int b = classify(g2, l2);
+		if (b < 0)
+			return null;
+		if (index == null) {
+			try {
+				return ContinuousMotionPath.findPath(t, g1, g2);
+			} catch (IllegalStateException e) {
+				// one broken walk should not fail the whole batch
+				Debug.warnMsg(e.getMessage());
+				return null;
+			}
+		}
+		if (index.component[a] != index.component[b])
+			return null;
+		return path(a, l1, b, l2);
+	}
+
+	/**
+	 * @return the node of the oriented interval of g, or -1 if it is not in
+	 *         the CCS
+	 */
+	private int classify(Realization g, double l) {
+		OrientedCayleyConfigSpace o = ccs.getOrientedCCS(t
+				.getForwardSolutionType(g));
+		if (o == null)
+			return -1;
+		Interval in = o.getContainingInterval(l);
+		return (in == null ? -1 : graph.indexOf(o, in));
+	}
+
+	/**
+	 * Build the path from length l1 on node a to length l2 on node b the way
+	 * {@link ContinuousMotionPath#findPath(TDLinkage, Realization, Realization)}
+	 * does: the walk from a leaving it at its lower end, or the other way
+	 * around the component if that is shorter
+	 */
+	private ContinuousMotionPath path(int a, double l1, int b, double l2) {
+		int c = index.component[a], m = index.numOfNodes(c);
+		// the walk from a runs along the index if the index leaves a at its
+		// lower end too, and against it otherwise
+		final int dir = (index.exitEnd(a) == IntervalGraph.LOWER ? 1 : -1);
+		int pa = index.position(a);
+		int d = ((index.position(b) - pa) * dir % m + m) % m;
+
+		ContinuousMotionPath p = new ContinuousMotionPath(t);
+		if (d == 0) {
+			add(p, a, l1, l2);
+			return p;
+		}
+		double l = exitLength(a, dir);
+		add(p, a, l1, l);
+		for (int j = 1; j < d; ++j) {
+			int x = index.nodeAt(c, pa + dir * j);
+			double next = exitLength(x, dir);
+			add(p, x, l, next);
+			l = next;
+		}
+		add(p, b, l, l2);
+
+		// the other way: back through the upper end of a, and the rest of the
+		// walk reversed
+		ContinuousMotionPath q = new ContinuousMotionPath(t);
+		add(q, a, l1, graph.endpoint(a, IntervalGraph.UPPER));
+		for (int j = m - 1; j > d; --j) {
+			int x = index.nodeAt(c, pa + dir * j);
+			int prev = index.nodeAt(c, pa + dir * (j - 1));
+			add(q, x, exitLength(x, dir), exitLength(prev, dir));
+		}
+		add(q, b, exitLength(b, dir), l2);
+
+		return (q.cost(metric) < p.cost(metric) ? q : p);
+	}
+
+	/**
+	 * @return the length where the walk from a, in direction dir of the
+	 *         index, leaves node x
+	 */
+	private double exitLength(int x, int dir) {
+		int end = index.exitEnd(x);
+		return graph.endpoint(x, dir > 0 ? end : 1 - end);
+	}
+
+	/**
+	 * Append node x from start to end to path
+	 */
+	private void add(ContinuousMotionPath path, int x, double start,
+			double end) {
+		path.add(start, end, graph.interval(x), graph.owner(x)
+				.getSolutionType());
+	}
+
+	private class QueryTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final List<TwoTuple<Realization, Realization>> queries;
+		private final ContinuousMotionPath[] paths;
+		private final int from, to;
+
+		QueryTask(List<TwoTuple<Realization, Realization>> queries,
+				ContinuousMotionPath[] paths, int from, int to) {
+			this.queries = queries;
+			this.paths = paths;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from <= QUERIES_PER_TASK) {
+				for (int i = from; i < to; ++i) {
+					TwoTuple<Realization, Realization> q = queries.get(i);
+					paths[i] = findPath(q.getFirst(), q.getSecond());
+				}
+				return;
+			}
+			int mid = (from + to) >>> 1;
+			invokeAll(new QueryTask(queries, paths, from, mid), new QueryTask(
+					queries, paths, mid, to));
+		}
+	}
+}
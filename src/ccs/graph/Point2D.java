@@ -19,24 +19,38 @@ package ccs.graph;
 
 import java.awt.geom.AffineTransform;
 import java.awt.geom.Point2D.Double;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
 
 //import org.jscience.mathematics.number.Real;
 
 /**
- * Represents an immutable 2D point (x, y) in double precision. Wraps the {@link java.awt.geom.Point2D.Double} class
+ * Represents an immutable 2D point (x, y) in double precision. Holds the two
+ * coordinates directly; serialized in the same form as when it wrapped a
+ * {@link java.awt.geom.Point2D.Double}, so saved files remain readable.
  * @author Menghan
  */
-public class Point2D implements Serializable {
+public final class Point2D implements Serializable {
 
 	private static final long serialVersionUID = 1914657776449391522L;
 
+	/**
+	 * The serialized form: a single field p of type
+	 * {@link java.awt.geom.Point2D.Double}
+	 */
+	private static final ObjectStreamField[] serialPersistentFields = { new ObjectStreamField(
+			"p", Double.class) };
+
 	public static Point2D orig = new Point2D(0, 0);
 
-	private Double p;
+	private double x, y;
 
 	public Point2D(double x, double y) {
-		p = new Double(x, y);
+		this.x = x;
+		this.y = y;
 	}
 
 	public Point2D(Point2D point) {
@@ -48,7 +62,7 @@ public class Point2D implements Serializable {
 	 * @return the x coordinate of the point
 	 */
 	public double x() {
-		return p.getX();
+		return x;
 	}
 
 	/**
@@ -56,7 +70,7 @@ public class Point2D implements Serializable {
 	 * @return the y coordinate of the point
 	 */
 	public double y() {
-		return p.getY();
+		return y;
 	}
 
 	/**
@@ -65,7 +79,7 @@ public class Point2D implements Serializable {
 	 * @return the vector representing <code>this - that</code>
 	 */
 	public Vector2D minus(Point2D that) {
-		return new Vector2D(that, this);
+		return new Vector2D(x - that.x, y - that.y);
 	}
 
 	/**
@@ -74,7 +88,7 @@ public class Point2D implements Serializable {
 	 * @return the point obtained by adding <code>v</code> to this point
 	 */
 	public Point2D add(Vector2D v) {
-		return new Point2D(x() + v.x(), y() + v.y());
+		return new Point2D(x + v.x(), y + v.y());
 	}
 
 	/**
@@ -83,7 +97,7 @@ public class Point2D implements Serializable {
 	 * @return the l2 distance between this point and <code>that</code>
 	 */
 	public double distance(Point2D that) {
-		return p.distance(that.p);
+		return distance(that.x, that.y);
 	}
 
 	/**
@@ -93,7 +107,8 @@ public class Point2D implements Serializable {
 	 * @return the l2 distance between this point and (<code>x,y</code>)
 	 */
 	public double distance(double x, double y) {
-		return p.distance(x, y);
+		double dx = x - this.x, dy = y - this.y;
+		return Math.sqrt(dx * dx + dy * dy);
 	}
 
 	/**
@@ -106,13 +121,21 @@ public class Point2D implements Serializable {
 	 *         0 if the three points are collinear
 	 */
 	public static int orientationOf(Point2D v1, Point2D v2, Point2D v) {
+		return orientationOf(v1.x(), v1.y(), v2.x(), v2.y(), v.x(), v.y());
+	}
+
+	/**
+	 * Determines the orientation of a triple of points given by their coordinates
+	 * @see #orientationOf(Point2D, Point2D, Point2D)
+	 */
+	public static int orientationOf(double x1, double y1, double x2, double y2, double x, double y) {
 		// (v - v1) X (v2 - v1) = (x - x1)(y2 - y1) - (x2 - x1)(y - y1)
 		// If this cross product is positive, then v1->v is clockwise from
 		// v1->v2; if negative, it is counterclockwise.
-		double cross = (v.x() - v1.x()) * (v2.y() - v1.y()) - (v2.x() - v1.x()) * (v.y() - v1.y());
+		double cross = (x - x1) * (y2 - y1) - (x2 - x1) * (y - y1);
 		// ??? add tolerance ???
 		final double distanceError = 2;
-		if (Math.abs(cross) < TDLinkage.ACCURACY || Util.distance(v, v1, v2) < distanceError) {
+		if (Math.abs(cross) < TDLinkage.ACCURACY || Util.distance(x, y, x1, y1, x2, y2) < distanceError) {
 			cross = 0;
 		}
 		int r = (int) Math.signum(cross);
@@ -125,11 +148,25 @@ public class Point2D implements Serializable {
 	 * @return the point by apply <code>AffineTransform t</code> to this point
 	 */
 	public Point2D transform(AffineTransform t) {
-		Double dst = (Double) t.transform(p, null);
+		Double dst = (Double) t.transform(new Double(x, y), null);
 		return new Point2D(dst.getX(), dst.getY());
 	}
 
+	private void writeObject(ObjectOutputStream out) throws IOException {
+		ObjectOutputStream.PutField fields = out.putFields();
+		fields.put("p", new Double(x, y));
+		out.writeFields();
+	}
+
+	private void readObject(ObjectInputStream in) throws IOException,
+			ClassNotFoundException {
+		ObjectInputStream.GetField fields = in.readFields();
+		Double p = (Double) fields.get("p", null);
+		x = p.getX();
+		y = p.getY();
+	}
+
 	public String toString() {
-		return "(" + x() + "," + y() + ")";
+		return "(" + x + "," + y + ")";
 	}
 }
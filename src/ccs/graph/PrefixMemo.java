@@ -0,0 +1,130 @@
+/*
+ This file is part of CayMos.
+
+ CayMos is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ CayMos is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ccs.graph;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Partial realizations of recent typed solves, one per base non-edge
+ * position. A solve whose realization type shares a prefix of orientations
+ * with the cached one resumes after that prefix, so flipping the orientation
+ * of step i only re-solves steps i and later.
+ * <p>
+ * Relies on every vertex being placed by exactly one construction step, so the
+ * coordinates written by the steps of the prefix are still valid.
+ */
+class PrefixMemo {
+	final static int DEFAULT_CAPACITY = 64;
+
+	private static class Entry {
+		/**
+		 * working realization; steps [0, reached) have been placed
+		 */
+		FlatRealization r;
+		int[] orient;
+		/**
+		 * slack used by each step
+		 */
+		double[] slack;
+		/**
+		 * number of steps attempted
+		 */
+		int reached;
+		/**
+		 * whether step reached - 1 failed
+		 */
+		boolean failed;
+	}
+
+	private ConstructionPlan plan;
+	private LinkedHashMap<Double, Entry> entries;
+
+	PrefixMemo(final int capacity) {
+		entries = new LinkedHashMap<Double, Entry>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Double, Entry> eldest) {
+				return size() > capacity;
+			}
+		};
+	}
+
+	/**
+	 * Same as solving p from base step by step with the orientations of
+	 * forward, reusing the longest prefix already solved for the same base.
+	 * 
+	 * @param base
+	 *            a flat realization with only the base non-edge placed
+	 * @return a new flat realization, with the slack used by all steps, or null
+	 *         if none exists
+	 */
+	synchronized FlatRealization solve(ConstructionPlan p, FlatRealization base,
+			RealizationType forward) {
+		if (p != plan) {
+			entries.clear();
+			plan = p;
+		}
+
+		double dx = base.x[p.base2] - base.x[p.base1];
+		double dy = base.y[p.base2] - base.y[p.base1];
+		Double key = Double.valueOf(Math.sqrt(dx * dx + dy * dy));
+		Entry e = entries.get(key);
+		if (e == null || !sameBase(p, e.r, base)) {
+			e = new Entry();
+			e.r = base;
+			e.orient = new int[p.numOfSteps];
+			e.slack = new double[p.numOfSteps];
+			entries.put(key, e);
+		}
+
+		int i = 0;
+		while (i < e.reached && e.orient[i] == forward.getOrientation(i))
+			++i;
+		if (i == e.reached && e.failed)
+			return null;
+
+		e.failed = false;
+		for (; i < p.numOfSteps; ++i) {
+			e.orient[i] = forward.getOrientation(i);
+			e.reached = i + 1;
+			e.r.slack = 0;
+			if (!p.placeStep(i, e.r, e.orient[i])) {
+				e.failed = true;
+				return null;
+			}
+			p.placeClusters(i, e.r);
+			e.slack[i] = e.r.slack;
+		}
+
+		FlatRealization r = new FlatRealization(e.r);
+		r.slack = 0;
+		for (i = 0; i < p.numOfSteps; ++i)
+			r.slack = Math.max(r.slack, e.slack[i]);
+		return r;
+	}
+
+	private static boolean sameBase(ConstructionPlan p, FlatRealization r1,
+			FlatRealization r2) {
+		return r1.tolerance == r2.tolerance && r1.x[p.base1] == r2.x[p.base1]
+				&& r1.y[p.base1] == r2.y[p.base1]
+				&& r1.x[p.base2] == r2.x[p.base2]
+				&& r1.y[p.base2] == r2.y[p.base2];
+	}
+}
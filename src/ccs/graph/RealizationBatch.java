@@ -0,0 +1,111 @@
+/*
+ This file is part of CayMos.
+
+ CayMos is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ CayMos is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ccs.graph;
+
+/**
+ * Realizations of a linkage for many lengths of the base non-edge, with one
+ * realization type. Coordinates are stored per vertex, as arrays over the
+ * lengths, together with a feasibility mask.
+ * @see TDLinkage#realizeBatch(double[], RealizationType)
+ */
+public class RealizationBatch {
+	private LinkageGraph graph;
+	private double[] lengths;
+
+	/**
+	 * x[v.index][k], y[v.index][k]: coordinates of v for the k-th length
+	 */
+	double[][] x, y;
+
+	/**
+	 * whether a realization exists for the k-th length
+	 */
+	boolean[] feasible;
+
+	/**
+	 * see {@link FlatRealization#tolerance}
+	 */
+	double tolerance = 0;
+
+	/**
+	 * the largest slack used to solve the k-th length
+	 */
+	double[] slack;
+
+	RealizationBatch(LinkageGraph g, int capacity, double[] lengths) {
+		this.graph = g;
+		this.lengths = lengths.clone();
+		int n = lengths.length;
+		x = new double[capacity][n];
+		y = new double[capacity][n];
+		feasible = new boolean[n];
+		slack = new double[n];
+	}
+
+	/**
+	 * Record the result s of placing a vertex for the k-th length
+	 * 
+	 * @return whether the vertex is placed
+	 */
+	boolean record(int k, double s) {
+		if (s > slack[k])
+			slack[k] = s;
+		return s >= 0;
+	}
+
+	public int size() {
+		return lengths.length;
+	}
+
+	public double getLength(int k) {
+		return lengths[k];
+	}
+
+	public boolean isFeasible(int k) {
+		return feasible[k];
+	}
+
+	/**
+	 * @return how far apart two circles were allowed to miss each other when
+	 *         solving the k-th length; 0 unless a solve tolerance is set
+	 * @see TDLinkage#setSolveTolerance(double)
+	 */
+	public double getSlack(int k) {
+		return slack[k];
+	}
+
+	public double x(Vertex v, int k) {
+		return x[v.index][k];
+	}
+
+	public double y(Vertex v, int k) {
+		return y[v.index][k];
+	}
+
+	/**
+	 * @return the realization for the k-th length, or null if none exists
+	 */
+	public Realization getRealization(int k) {
+		if (!feasible[k])
+			return null;
+		Realization r = new Realization(graph);
+		for (Vertex v : graph.getVertices())
+			r.setPoint(v, new Point2D(x[v.index][k], y[v.index][k]));
+		return r;
+	}
+}
@@ -19,31 +19,58 @@ package ccs.graph;
 
 import java.awt.Color;
 import java.util.ArrayList;
-
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * The orientation (1, -1, or 0 for collinear | don't care) of every
+ * construction step. Stored as two bitmasks, one bit per step: nonzero, and
+ * positive among the nonzero steps.
+ * @author Menghan
+ */
 public class RealizationType {
-	int orientations[];
+	private final int size;
+
+	private long[] nonzero, positive;
 
 	public RealizationType(int size) {
-		orientations = new int[size];
+		this.size = size;
+		nonzero = new long[(size + 63) >>> 6];
+		positive = new long[nonzero.length];
 	}
 
 	public int getSize() {
-		return orientations.length;
+		return size;
 	}
 
 	public int getOrientation(int index) {
-		return orientations[index];
+		assert (index < size);
+		long bit = 1L << index;
+		if ((nonzero[index >>> 6] & bit) == 0)
+			return 0;
+		return ((positive[index >>> 6] & bit) != 0 ? 1 : -1);
 	}
 
 	public void setOrientation(int index, int value) {
 		assert (value == 1 || value == -1 || value == 0);
-		orientations[index] = value;
+		assert (index < size);
+		int w = index >>> 6;
+		long bit = 1L << index;
+		if (value == 0)
+			nonzero[w] &= ~bit;
+		else
+			nonzero[w] |= bit;
+		if (value == 1)
+			positive[w] |= bit;
+		else
+			positive[w] &= ~bit;
 	}
 
 	@Override
 	public RealizationType clone() {
 		RealizationType t = new RealizationType(this.getSize());
-		t.orientations = orientations.clone();
+		t.nonzero = nonzero.clone();
+		t.positive = positive.clone();
 		return t;
 	}
 
@@ -53,92 +80,102 @@ public class RealizationType {
 			return false;
 
 		RealizationType that = (RealizationType) obj;
-		if (that.getSize() != this.getSize())
-			return false;
-		for (int i = 0; i < getSize(); ++i) {
-			int o1 = that.getOrientation(i), o2 = this.getOrientation(i);
-			if (o1 != o2)
-				return false;
-		}
-		return true;
+		return that.size == this.size
+				&& Arrays.equals(that.nonzero, this.nonzero)
+				&& Arrays.equals(that.positive, this.positive);
+	}
+
+	@Override
+	public int hashCode() {
+		return 31 * (31 * size + Arrays.hashCode(nonzero))
+				+ Arrays.hashCode(positive);
 	}
 
 	@Override
 	public String toString() {
-		String s = "";
-		for (int i : orientations) {
-			s += i + " ";
-		}
-		return s;
+		StringBuilder s = new StringBuilder();
+		for (int i = 0; i < size; ++i)
+			s.append(getOrientation(i)).append(' ');
+		return s.toString();
 	}
 
+	/**
+	 * @return whether no step has opposite nonzero orientations in the two
+	 *         types, over the steps of the shorter one
+	 */
 	public boolean compatible(RealizationType that) {
-		if (this.equals(that))
-			return true;
-		for (int i = 0; i < Math.min(this.getSize(), that.getSize()); ++i) {
-			int o1 = that.getOrientation(i), o2 = this.getOrientation(i);
-			if (o1 != 0 && o2 != 0 && o1 != o2)
+		// bits beyond size are never set, so the common words suffice
+		int n = Math.min(this.nonzero.length, that.nonzero.length);
+		for (int w = 0; w < n; ++w) {
+			long both = this.nonzero[w] & that.nonzero[w];
+			if ((both & (this.positive[w] ^ that.positive[w])) != 0)
 				return false;
 		}
 		return true;
 	}
 
 	// ??? is it the case that every solution type realizable for some |f|?
+	/**
+	 * @return all 2^length types; the i-th has orientation 1 at step j iff bit
+	 *         j of i is set, -1 otherwise
+	 */
 	public static ArrayList<RealizationType> generateSolutionTypes(int length) {
+		assert (length < 63);
 		ArrayList<RealizationType> solutionTypes = new ArrayList<RealizationType>();
-		double upper = Math.pow(2, length);
-		for (int i = 0; i < upper; ++i) {
+		long upper = 1L << length;
+		for (long i = 0; i < upper; ++i) {
 			RealizationType type = new RealizationType(length);
 			for (int j = 0; j < length; ++j)
-				type.setOrientation(j, -1);
-			String bin = Integer.toBinaryString(i);
-			// System.out.println(bin);
-			for (int j = 0; j < bin.length(); ++j) {
-				if (bin.charAt(bin.length() - j - 1) == '1')
-					type.setOrientation(j, 1);
-			}
+				type.setOrientation(j, ((i >>> j) & 1) == 1 ? 1 : -1);
 			solutionTypes.add(type);
 		}
 		return solutionTypes;
 	}
 
-	protected boolean isExtreme() {
-		int count = 0;
-		for (int o : orientations) {
-			if (o == 0)
-				count++;
+	/**
+	 * The order of {@link #generateSolutionTypes(int)}: the last step is the
+	 * most significant, and -1 comes before 1
+	 */
+	static final Comparator<RealizationType> GENERATION_ORDER = new Comparator<RealizationType>() {
+		@Override
+		public int compare(RealizationType t1, RealizationType t2) {
+			assert (t1.getSize() == t2.getSize());
+			for (int i = t1.getSize() - 1; i >= 0; --i) {
+				int o1 = t1.getOrientation(i), o2 = t2.getOrientation(i);
+				if (o1 != o2)
+					return (o1 < o2 ? -1 : 1);
+			}
+			return 0;
 		}
-		return count >= 1;
+	};
+
+	protected boolean isExtreme() {
+		return indexOfZero() >= 0;
 	}
 
 	protected int indexOfZero() {
-		for (int i = 0; i < getSize(); ++i)
-			if (getOrientation(i) == 0)
+		for (int w = 0; w < nonzero.length; ++w) {
+			int i = (w << 6) + Long.numberOfTrailingZeros(~nonzero[w]);
+			if (~nonzero[w] != 0 && i < size)
 				return i;
+		}
 		return -1;
 	}
 
 	public void flipOrientation(int index) {
-		int o = orientations[index];
-		orientations[index] = -o;
+		assert (index < size);
+		// flips 1 and -1; 0 stays 0 as positive is clear
+		int w = index >>> 6;
+		positive[w] ^= nonzero[w] & (1L << index);
 	}
 
+	/**
+	 * @return a code of the orientations, derived from the packed words so
+	 *         that it does not overflow for long construction sequences; equal
+	 *         types have equal codes
+	 */
 	public int getEncoding() {
-		int code = 0;
-		for (int o : orientations) {
-			switch (o) {
-			case 1:
-				code = code * 3 + 1;
-				break;
-			case -1:
-				code = code * 3 + 2;
-				break;
-			case 0:
-				code = code * 3 + 0;
-				break;
-			}
-		}
-		return code;
+		return hashCode();
 	}
 
 	public Color getColor() {
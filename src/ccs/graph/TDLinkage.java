@@ -19,29 +19,73 @@ package ccs.graph;
 
 import java.util.AbstractList;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.ListIterator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
 
 import ui.Debug;
 
 public class TDLinkage {
 	final static double ACCURACY = 0.0001;
 
+	/**
+	 * Linkages with at least this many construction steps enumerate their
+	 * realizations in parallel
+	 */
+	final static int PARALLEL_MIN_STEPS = 8;
+
+	/**
+	 * Subtrees of the orientation tree rooted above this depth are forked;
+	 * below it they are solved serially. Leaves roughly 4 subtrees per core.
+	 */
+	final static int FORK_DEPTH = 32 - Integer.numberOfLeadingZeros(4 * Runtime
+			.getRuntime().availableProcessors() - 1);
+
+	/**
+	 * Shared by parallel solves and parallel CCS generation
+	 */
+	static final ForkJoinPool solvePool = new ForkJoinPool();
+
 	// adjacent-list, indexed by v
 	// private LinkedList<Cluster> clusters;
 	public ClusterGraph clusterGraph;
 
 	LinkageGraph graph;
 
+	/**
+	 * Upper bound (exclusive) on the vertex indices of graph, i.e. the capacity
+	 * of a {@link FlatRealization} of this linkage
+	 */
+	private int indexBound;
+
+	/**
+	 * Per-thread scratch realization of realizable(double, RealizationType)
+	 */
+	private final ThreadLocal<FlatRealization> feasibilityBuffer = new ThreadLocal<FlatRealization>();
+
 	/**
 	 * A realization of the linkage. Stores the information of bar lengths.
 	 */
 	private Realization initRealization;
 
+	int getIndexBound() {
+		return indexBound;
+	}
+
+	Realization getInitRealization() {
+		return initRealization;
+	}
+
 	public Point2D initPoint(Vertex v) {
 		return initRealization.getPoint(v);
 	}
@@ -66,17 +110,136 @@ public class TDLinkage {
 	// }
 
 	public void setInitPoints(Realization r) {
+		invalidateExtremes(firstChangedStep(r));
 		initRealization.setPoints(r);
+		invalidatePlan();
 	}
 
 	public void setInitPoint(Vertex v, Point2D newloc) {
+		invalidateExtremes(0);
 		initRealization.setPoint(v, newloc);
+		invalidatePlan();
 	}
 
 	public void setInitPoint(Vertex v, double x, double y) {
 		setInitPoint(v, new Point2D(x, y));
 	}
 
+	/**
+	 * Move the initial realization to r, keeping the decomposition, the
+	 * construction sequence and the extreme solutions of the steps before the
+	 * first step whose clusters change shape. The CCS is dropped if any step
+	 * changes, and is regenerated by {@link #genCayleyConfigSpace()}.
+	 * 
+	 * @return false, leaving the linkage untouched, if r is not a realization
+	 *         of the same graph with the same edges as when this linkage was
+	 *         built; a new TDLinkage is needed then
+	 */
+	public boolean updateInitPoints(Realization r) {
+		if (r.getGraph() != graph)
+			return false;
+		Vertex[] vertices = sortedVertices(graph);
+		if (!Arrays.equals(topologyVertices, vertices)
+				|| !Arrays.equals(topology, topologyOf(graph, vertices)))
+			return false;
+		int first = firstChangedStep(r);
+		invalidateExtremes(first);
+		initRealization.setPoints(r);
+		invalidatePlan();
+		if (!constructionSequenceGenerated()
+				|| first < constructionSequence.size())
+			cayleyConfigSpace = null;
+		Debug.msg("init points updated from step " + first);
+		return true;
+	}
+
+	/**
+	 * @return the vertices of g, by index
+	 */
+	private static Vertex[] sortedVertices(LinkageGraph g) {
+		Vertex[] vertices = g.getVertices().toArray(new Vertex[0]);
+		Arrays.sort(vertices, new Comparator<Vertex>() {
+			@Override
+			public int compare(Vertex v1, Vertex v2) {
+				return Integer.compare(v1.index, v2.index);
+			}
+		});
+		return vertices;
+	}
+
+	/**
+	 * @return for each of the vertices, its index followed by its degree and
+	 *         its sorted neighbor indices
+	 */
+	private static int[] topologyOf(LinkageGraph g, Vertex[] vertices) {
+		int n = 0;
+		for (Vertex v : vertices)
+			n += 2 + g.degree(v);
+		int[] t = new int[n];
+		n = 0;
+		for (Vertex v : vertices) {
+			LinkedList<Vertex> neighbors = g.getNeighbors(v);
+			t[n++] = v.index;
+			t[n++] = neighbors.size();
+			int from = n;
+			for (Vertex w : neighbors)
+				t[n++] = w.index;
+			Arrays.sort(t, from, n);
+		}
+		return t;
+	}
+
+	/**
+	 * @return the first construction step with a cluster of a different shape
+	 *         in r than in initRealization, or the number of steps if there is
+	 *         none; 0 if there is no construction sequence yet
+	 */
+	private int firstChangedStep(Realization r) {
+		if (!constructionSequenceGenerated())
+			return 0;
+		for (int i = 0; i < constructionSequence.size(); ++i) {
+			ConstructionStep s = constructionSequence.get(i);
+			if (shapeChanged(s.c1(), r) || shapeChanged(s.c2(), r))
+				return i;
+		}
+		return constructionSequence.size();
+	}
+
+	/**
+	 * Whether c is not congruent (up to a rotation) in r to initRealization:
+	 * every vertex is fixed by its distances to two vertices a, b and its
+	 * side of (a, b). Lengths are compared exactly.
+	 */
+	private boolean shapeChanged(Cluster c, Realization r) {
+		Iterator<Vertex> iter = c.vertices.iterator();
+		Vertex a = iter.next(), b = iter.next();
+		if (initRealization.distance(a, b) != r.distance(a, b))
+			return true;
+		for (Vertex w : c.vertices) {
+			if (w == a || w == b)
+				continue;
+			if (initRealization.distance(a, w) != r.distance(a, w)
+					|| initRealization.distance(b, w) != r.distance(b, w)
+					|| side(initRealization, a, b, w) != side(r, a, b, w))
+				return true;
+		}
+		return false;
+	}
+
+	private static double side(Realization r, Vertex a, Vertex b, Vertex w) {
+		Point2D pa = r.getPoint(a), pb = r.getPoint(b), pw = r.getPoint(w);
+		return Math.signum((pb.x() - pa.x()) * (pw.y() - pa.y())
+				- (pb.y() - pa.y()) * (pw.x() - pa.x()));
+	}
+
+	/**
+	 * Drop the cached extreme solutions of the steps from the given one on
+	 */
+	private void invalidateExtremes(int from) {
+		if (extremeCache != null)
+			extremeCache.invalidate(from);
+	}
+
 	public Collection<Cluster> getClusters() {
 		return clusterGraph.clusters.keySet();
 	}
@@ -94,6 +257,23 @@ public class TDLinkage {
 
 	private ArrayList<ConstructionStep> constructionSequence;
 
+	/**
+	 * constructionSequence compiled against initRealization; built lazily
+	 */
+	private ConstructionPlan plan;
+
+	/**
+	 * partial typed solves, keyed by base length; null if turned off
+	 */
+	private PrefixMemo prefixMemo;
+
+	/**
+	 * 0: legacy mode, failed solves are retried at +/- ACCURACY; otherwise
+	 * solve in a single pass, placing a vertex even if its two circles miss
+	 * each other by up to solveTolerance
+	 */
+	private double solveTolerance = 0;
+
 	// 0:not initialized, 1:true, -1:false
 	private int isTriangleFree = 0;
 	private int is1Path = 0;
@@ -101,21 +281,89 @@ public class TDLinkage {
 
 	public CayleyConfigSpace cayleyConfigSpace;
 
+	/**
+	 * extreme linkages and their solutions, kept across changes of
+	 * initRealization; created by the candidates engine
+	 */
+	CayleyConfigSpace.ExtremeCache extremeCache;
+
+	/**
+	 * graph's vertices and topology when this linkage was built, see
+	 * {@link #updateInitPoints(Realization)}
+	 */
+	private final Vertex[] topologyVertices;
+	private final int[] topology;
+
+	/**
+	 * CCS engines: solve extreme linkages for candidate endpoints and probe
+	 * between them; or propagate the realizable lengths along the
+	 * construction sequence, see {@link CCSPropagation}. Propagation can
+	 * miss or split narrow intervals that the candidates engine finds;
+	 * CCSPropagation.main compares the two on saved linkages.
+	 */
+	public final static int CCS_CANDIDATES = 0, CCS_PROPAGATION = 1;
+
+	private int ccsEngine = CCS_CANDIDATES;
+
+	/**
+	 * How motion paths around a component are compared: by the total change
+	 * of the base non-edge length, or by the number of orientation flips
+	 */
+	public final static int PATH_CAYLEY_LENGTH = 0, PATH_FLIPS = 1;
+
+	private int pathMetric = PATH_CAYLEY_LENGTH;
+
+	/**
+	 * whether the candidates engine solves extreme linkages and builds the
+	 * oriented CCSs on solvePool
+	 */
+	private boolean parallelCCS = false;
+
+	/**
+	 * whether findAllComponents() walks the components on solvePool
+	 */
+	private boolean parallelComponents = false;
+
+	/**
+	 * whether the candidates engine only checks the types reachable from the
+	 * extreme solutions instead of all 2^n types
+	 */
+	private boolean sparseTypes = false;
+
+	/**
+	 * 0: keep the endpoints of the oriented intervals as found; otherwise
+	 * refine them to this tolerance
+	 */
+	private double endpointTolerance = 0;
+
 	// Initialize: graph, clusterGraph & sharedVertices <- decomposition of g
 	// does not do base non-edge.
 	// may not be 1-dof t-d
 	public TDLinkage(LinkageGraph g) {
+		this(g, Util.getDecompose(g));
+	}
+
+	/**
+	 * @param cg
+	 *            the decomposition of g; its clusters must not be shared with
+	 *            another linkage
+	 */
+	TDLinkage(LinkageGraph g, ClusterGraph cg) {
 		this.graph = g;
+		for (Vertex v : g.getVertices())
+			indexBound = Math.max(indexBound, v.index + 1);
 		// vClusters = new HashMap<Vertex, LinkedList<Cluster>>();
 		// for (Vertex v : graph.getVertices())
 		// vClusters.put(v, new LinkedList<Cluster>());
 		sharedVertices = new ArrayList<Vertex>();
-		this.decompose();
+		this.decompose(cg);
 		this.initRealization = new Realization(g);
+		this.topologyVertices = sortedVertices(g);
+		this.topology = topologyOf(g, topologyVertices);
 	}
 
-	private void decompose() {
-		this.clusterGraph = Util.getDecompose(graph);
+	private void decompose(ClusterGraph cg) {
+		this.clusterGraph = cg;
 
 		for (Vertex v : graph.getVertices()) {
 			if (clusterGraph.degree(v) > 1)
@@ -190,6 +438,7 @@ public class TDLinkage {
 	 */
 	public void genConstructionSequence(Edge base) {
 		this.constructionSequence = null;
+		invalidatePlan();
 
 		if (base != null && base.v1().index > base.v2().index) {
 			base.setFirst(base.v2());
@@ -318,6 +567,7 @@ public class TDLinkage {
 
 			Collections.reverse(seq);
 			this.constructionSequence = seq;
+			extremeCache = null;
 			return;
 		}
 		Debug.msg("not 1-dof td: " + gg.clusters.size() + ","
@@ -509,6 +759,8 @@ public class TDLinkage {
 				assert (s1.c2().containsSharedVertex(baseNonEdge.v2()));
 			}
 			s1.baseVertices = baseNonEdge;
+			invalidatePlan();
+			extremeCache = null;
 		}
 		Debug.msg("after normalization:" + this.constructionSequence);
 	}
@@ -573,7 +825,7 @@ public class TDLinkage {
 		}
 
 		LinkageGraph eg = graph.inducedSubgraph(vset);
-		TDLinkage t = new TDLinkage(eg);
+		TDLinkage t = new TDLinkage(eg, extremeClusterGraph(eg, vset, index));
 		t.initRealization = this.initRealization;
 		ConstructionStep s = constructionSequence.get(index);
 		// System.out.println(s.getV1()+","+s.getV2());
@@ -597,6 +849,33 @@ public class TDLinkage {
 		return t;
 	}
 
+	/**
+	 * The decomposition of the index-th extreme linkage: its clusters are
+	 * those of steps [0, index], so they are copied from this decomposition
+	 * instead of decomposing eg again. The copies have their own shared
+	 * vertices and local frames.
+	 */
+	private ClusterGraph extremeClusterGraph(LinkageGraph eg,
+			ArrayList<Vertex> vset, int index) {
+		ClusterGraph cg = new ClusterGraph();
+		for (Vertex v : vset)
+			cg.addVertex(v);
+		HashSet<Cluster> copied = new HashSet<Cluster>();
+		for (int i = 0; i <= index; ++i) {
+			ConstructionStep s = constructionSequence.get(i);
+			for (Cluster c : new Cluster[] { s.c1(), s.c2() }) {
+				if (!copied.add(c))
+					continue;
+				Cluster copy = new Cluster(eg);
+				for (Vertex v : c.vertices)
+					copy.addVertices(v);
+				cg.addVertex(copy);
+				cg.addEdges(copy);
+			}
+		}
+		return cg;
+	}
+
 	/**
 	 * @return the achievable interval for the base pair of vertices of the
 	 *         given construction step
@@ -646,6 +925,70 @@ public class TDLinkage {
 		}
 	}
 
+	/**
+	 * @return the construction sequence compiled against initRealization
+	 */
+	ConstructionPlan getPlan() {
+		if (!constructionSequenceGenerated()) {
+			// generateConstructionSequence();
+			this.genConstructionSequence(baseNonEdge);
+			this.normalizeBaseNonEdge();
+		}
+		ConstructionPlan p = plan;
+		if (p == null) {
+			p = new ConstructionPlan(this);
+			plan = p;
+		}
+		return p;
+	}
+
+	/**
+	 * Turn on/off memoization of partial realizations for solves with a
+	 * specific solution type. When on, solves of the same base length whose
+	 * types share a prefix of orientations only recompute the steps after the
+	 * prefix.
+	 */
+	public void setPrefixMemo(boolean on) {
+		prefixMemo = (on ? new PrefixMemo(PrefixMemo.DEFAULT_CAPACITY) : null);
+	}
+
+	/**
+	 * Set the tolerance of the single-pass solve; 0 restores the legacy
+	 * retries at +/- ACCURACY.
+	 */
+	public void setSolveTolerance(double tolerance) {
+		assert (tolerance >= 0);
+		solveTolerance = tolerance;
+	}
+
+	public double getSolveTolerance() {
+		return solveTolerance;
+	}
+
+	/**
+	 * Discard the compiled plan. Must be called whenever the construction
+	 * sequence or initRealization changes.
+	 */
+	void invalidatePlan() {
+		if (plan != null)
+			plan.clearLocalFrames();
+		plan = null;
+	}
+
+	/**
+	 * @return a flat realization with only the base non-edge placed
+	 */
+	private FlatRealization baseRealization(ConstructionPlan p,
+			EdgePos newBasePos) {
+		FlatRealization r = new FlatRealization(indexBound);
+		r.tolerance = solveTolerance;
+		r.x[p.base1] = newBasePos.x1();
+		r.y[p.base1] = newBasePos.y1();
+		r.x[p.base2] = newBasePos.x2();
+		r.y[p.base2] = newBasePos.y2();
+		return r;
+	}
+
 	/**
 	 * Given lf, solve the possible realizations w/ any solution type.
 	 * 
@@ -669,27 +1012,77 @@ public class TDLinkage {
 	 * @return list of all possible realizations
 	 */
 	public ArrayList<Realization> solve(EdgePos newBasePos) {
+		ConstructionPlan p = getPlan();
+		FlatRealization r = baseRealization(p, newBasePos);
+		if (p.numOfSteps >= PARALLEL_MIN_STEPS) {
+			// already inside a fork-join computation, e.g. a parallel CCS
+			// generation: run in the current pool instead of blocking on
+			// solvePool
+			if (ForkJoinTask.inForkJoinPool())
+				return new SolveTask(p, r, 0).invoke();
+			return solvePool.invoke(new SolveTask(p, r, 0));
+		}
+
 		ArrayList<Realization> solutions = new ArrayList<Realization>();
-		if (!constructionSequenceGenerated()) {
-			// generateConstructionSequence();
-			this.genConstructionSequence(baseNonEdge);
-			this.normalizeBaseNonEdge();
+		this.solve(p, r, 0, solutions);
+		return solutions;
+	}
+
+	/**
+	 * Fork-join version of solve(ConstructionPlan, FlatRealization, int,
+	 * ArrayList). Each task owns its flat realization; the two subtrees of a
+	 * step are solved on separate copies and their results concatenated, so
+	 * the solutions come out in the same order as the serial version.
+	 */
+	private class SolveTask extends RecursiveTask<ArrayList<Realization>> {
+		private static final long serialVersionUID = 1L;
+
+		private final ConstructionPlan p;
+		private final FlatRealization curRealization;
+		private final int stepIndex;
+
+		SolveTask(ConstructionPlan p, FlatRealization curRealization,
+				int stepIndex) {
+			this.p = p;
+			this.curRealization = curRealization;
+			this.stepIndex = stepIndex;
 		}
 
-		Realization r = new Realization(graph);
-		r.setPoint(baseNonEdge.v1(), newBasePos.p1());
-		r.setPoint(baseNonEdge.v2(), newBasePos.p2());
+		@Override
+		protected ArrayList<Realization> compute() {
+			ArrayList<Realization> solutions = new ArrayList<Realization>();
+			if (stepIndex >= FORK_DEPTH || stepIndex >= p.numOfSteps) {
+				solve(p, curRealization, stepIndex, solutions);
+				return solutions;
+			}
 
-		this.solve(r, 0, solutions);
+			int v = p.v[stepIndex];
+			FlatRealization r1 = curRealization;
+			if (!p.placeStep(stepIndex, r1, 1))
+				return solutions;
 
-		return solutions;
-	}
+			FlatRealization r2 = new FlatRealization(r1);
+			p.placeStep(stepIndex, r2, -1);
+
+			SolveTask t2 = null;
+			if (Math.abs(r2.x[v] - r1.x[v]) > ACCURACY
+					|| Math.abs(r2.y[v] - r1.y[v]) > ACCURACY) {
+				p.placeClusters(stepIndex, r2);
+				t2 = new SolveTask(p, r2, stepIndex + 1);
+				t2.fork();
+			}
 
-	// TODO: CLEAR UP ======================================
+			p.placeClusters(stepIndex, r1);
+			solutions.addAll(new SolveTask(p, r1, stepIndex + 1).compute());
+			if (t2 != null)
+				solutions.addAll(t2.join());
+			return solutions;
+		}
+	}
 
 	/**
-	 * Called by solve(EdgePos). Recursively solve curGraph, does not restrict
-	 * solution type
+	 * Called by solve(EdgePos). Recursively solve curRealization, does not
+	 * restrict solution type
 	 * 
 	 * @param curRealization
 	 *            a realization specifying the coordinates of the base pair of
@@ -700,80 +1093,33 @@ public class TDLinkage {
 	 *            storing the resulted realizations
 	 * @return whether results exist
 	 */
-	private boolean solve(Realization curRealization, int stepIndex,
-			ArrayList<Realization> solutions) {
+	private boolean solve(ConstructionPlan p, FlatRealization curRealization,
+			int stepIndex, ArrayList<Realization> solutions) {
 
-		if (stepIndex >= this.getNumOfConstructStep()) {
+		if (stepIndex >= p.numOfSteps) {
 			// successfully obtained one solution!
-			solutions.add(curRealization.clone());
+			solutions.add(curRealization.toRealization(graph));
 			return true;
 		}
 
-		ConstructionStep s = constructionSequence.get(stepIndex);
-		Vertex v1 = s.v1(), v2 = s.v2(), v = s.v();
-		assert (v1.index < v2.index);
+		int v = p.v[stepIndex];
+		if (!p.placeStep(stepIndex, curRealization, 1))
+			return false;
+		double vx = curRealization.x[v], vy = curRealization.y[v];
 
-		// compute (from init position) e1, e2
-		double r1 = barLength(v1, v);// graph.distance(v1, v);
-		double r2 = barLength(v2, v);// graph.distance(v2, v);
+		p.placeClusters(stepIndex, curRealization);
+		boolean b = this.solve(p, curRealization, stepIndex + 1, solutions);
 
-		Point2D p1 = curRealization.getPoint(v1), p2 = curRealization
-				.getPoint(v2);
+		p.placeStep(stepIndex, curRealization, -1);
 
-		Debug.msg("solve for step " + s + ",   r1:" + r1 + ", r2:" + r2);
-		Point2D pv = Util.solve(p1, p2, r1, r2, 1);
-		if (pv == null)
-			return false;
-		curRealization.setPoint(v, pv);
-
-		// transform cluster
-		HashSet<Vertex> vC1 = s.c1().getVertices();
-		vC1.remove(v);
-		vC1.remove(v1);
-		if (!vC1.isEmpty())
-			transformCluster(vC1, new Edge(v1, v),
-					curRealization.getPoints(v1, v), curRealization);
-
-		HashSet<Vertex> vC2 = s.c2().getVertices();
-		vC2.remove(v);
-		vC2.remove(v2);
-		if (!vC2.isEmpty())
-			transformCluster(vC2, new Edge(v2, v),
-					curRealization.getPoints(v2, v), curRealization);
-
-		boolean b = this.solve(curRealization, stepIndex + 1, solutions);
-
-		Point2D pv2 = Util.solve(p1, p2, r1, r2, -1);
-
-		if (Math.abs(pv2.x() - pv.x()) > ACCURACY
-				|| Math.abs(pv2.y() - pv.y()) > ACCURACY) {
-			// if (Math.abs(Xd - Xc) > ACCURACY || Math.abs(Yd - Yc) > ACCURACY)
-			// {
-
-			curRealization.setPoint(v, pv2);
-			// curGraph.setPoint(v, Xd, Yd);
-
-			// if (!vC1.isEmpty())
-			// curGraph.transformVertices(vC1, graph.getPoints(v1, v),
-			// curGraph.getPoints(v1, v));
-			if (!vC1.isEmpty())
-				transformCluster(vC1, new Edge(v1, v),
-						curRealization.getPoints(v1, v), curRealization);
-			// if (!vC2.isEmpty())
-			// curGraph.transformVertices(vC2, graph.getPoints(v2, v),
-			// curGraph.getPoints(v2, v));
-			if (!vC2.isEmpty())
-				transformCluster(vC2, new Edge(v2, v),
-						curRealization.getPoints(v2, v), curRealization);
-
-			boolean b2 = this.solve(curRealization, stepIndex + 1, solutions);
+		if (Math.abs(curRealization.x[v] - vx) > ACCURACY
+				|| Math.abs(curRealization.y[v] - vy) > ACCURACY) {
+			p.placeClusters(stepIndex, curRealization);
+			boolean b2 = this.solve(p, curRealization, stepIndex + 1,
+					solutions);
 			b = b || b2;
 		}
 
-		// if (Graph.DEBUG)
-		// System.out.println("r1,r2,r3: " + Vertex.distance(u1, u) + ","
-		// + Vertex.distance(u2, u) + "," + Vertex.distance(u1, u2));
-
 		return b;
 	}
 
@@ -795,65 +1141,51 @@ public class TDLinkage {
 		return solve(new EdgePos(p1, p2), forward);
 	}
 
+	/**
+	 * Same as {@link #solve(Realization, double, RealizationType)}, and tell
+	 * how far apart two circles were allowed to miss each other in this solve;
+	 * always 0 unless a solve tolerance is set. Safe to call from concurrent
+	 * solves of the same linkage.
+	 * 
+	 * @return the realization and its slack, or null if none exists
+	 * @see #setSolveTolerance(double)
+	 */
+	public TwoTuple<Realization, Double> solveWithSlack(Realization cur,
+			double length, RealizationType forward) {
+		Point2D p1 = cur.getPoint(baseNonEdge.v1());
+		Point2D p2 = new Point2D(p1.x() + length, p1.y());
+		FlatRealization r = solveFlat(new EdgePos(p1, p2), forward);
+		if (r == null)
+			return null;
+		return new TwoTuple<Realization, Double>(r.toRealization(graph),
+				r.slack);
+	}
+
 	// solve w/ sol type
 	private Realization solve(EdgePos newBasePos, RealizationType forward) {
+		FlatRealization r = solveFlat(newBasePos, forward);
+		return (r == null ? null : r.toRealization(graph));
+	}
 
-		if (!constructionSequenceGenerated()) {
-			// generateConstructionSequence();
-			this.genConstructionSequence(baseNonEdge);
-			this.normalizeBaseNonEdge();
-		}
-		Realization r = new Realization(graph);
-
-		r.setPoint(baseNonEdge.v1(), newBasePos.p1());
-		r.setPoint(baseNonEdge.v2(), newBasePos.p2());
-
-		for (int i = 0; i < this.getNumOfConstructStep(); ++i) {
-			ConstructionStep s = this.getConstructionStep(i);
-			Vertex v1 = s.v1(), v2 = s.v2(), v = s.v();
-			// if (Graph.DEBUG)
-			// Debug.msg("solving " + v + " from construction step " + s);
-			// Debug.msg("newbasepos:" + newBasePos);
-
-			assert (v1.index < v2.index);
-
-			// compute (from old position) e1, e2
-			double r1 = barLength(v1, v);// graph.distance(v1, v);
-			double r2 = barLength(v2, v);// graph.distance(v2, v);
-
-			Point2D p1 = r.getPoint(v1), p2 = r.getPoint(v2);
-
-			int orient = forward.getOrientation(i);
-
-			// Debug.msg("coordinates:" + p1 + "," + p2);
-			Point2D pv = Util.solve(p1, p2, r1, r2, orient);
-			if (pv == null)
+	/**
+	 * Solve w/ sol type, without leaving the flat representation
+	 * 
+	 * @return the flat realization, or null if none exists
+	 */
+	private FlatRealization solveFlat(EdgePos newBasePos,
+			RealizationType forward) {
+		ConstructionPlan p = getPlan();
+		FlatRealization r = baseRealization(p, newBasePos);
+		PrefixMemo m = prefixMemo;
+		if (m != null)
+			return m.solve(p, r, forward);
+
+		for (int i = 0; i < p.numOfSteps; ++i) {
+			if (!p.placeStep(i, r, forward.getOrientation(i)))
 				return null;
-			r.setPoint(v, pv);
-
 			// transform cluster
-			HashSet<Vertex> vC1 = s.c1().getVertices();
-			vC1.remove(v);
-			vC1.remove(v1);
-			if (!vC1.isEmpty())
-				transformCluster(vC1, new Edge(v1, v), r.getPoints(v1, v), r);
-			// if (!vC1.isEmpty())
-			// g.transformVertices(vC1,
-			// // new EdgePos(g.getPoint(v1), graph.getPoint(v)),
-			// graph.getPoints(v1, v), // ??? right?
-			// g.getPoints(v1, v));
-
-			HashSet<Vertex> vC2 = s.c2().getVertices();
-			vC2.remove(v);
-			vC2.remove(v2);
-			if (!vC2.isEmpty())
-				transformCluster(vC2, new Edge(v2, v), r.getPoints(v2, v), r);
-			// if (!vC2.isEmpty())
-			// g.transformVertices(vC2, graph.getPoints(v2, v),
-			// g.getPoints(v2, v));
+			p.placeClusters(i, r);
 		}
-		// System.out.println("old graph:" + graph.printPoints());
-		// System.out.println("new graph:" + g.printPoints());
 		return r;
 	}
 
@@ -891,7 +1223,7 @@ public class TDLinkage {
 	 */
 	public ArrayList<Realization> tryRealize(double length) {
 		ArrayList<Realization> solutions = solve(initRealization, length);
-		if (solutions.isEmpty()) {
+		if (solutions.isEmpty() && solveTolerance <= 0) {
 			solutions = solve(initRealization, length + ACCURACY);
 			if (solutions.isEmpty())
 				solutions = solve(initRealization, length - ACCURACY);
@@ -915,7 +1247,7 @@ public class TDLinkage {
 	public Realization tryRealize(double length, RealizationType forward) {
 		// Debug.msg("try realize for length: "+ length);
 		Realization g = solve(initRealization, length, forward);
-		if (g == null) {
+		if (g == null && solveTolerance <= 0) {
 			g = solve(initRealization, length + ACCURACY, forward);
 			if (g == null)
 				g = solve(initRealization, length - ACCURACY, forward);
@@ -953,15 +1285,131 @@ public class TDLinkage {
 		// }
 	}
 
+	/**
+	 * tryRealize(double, RealizationType) for many lengths at once. Each
+	 * construction step is solved for the whole batch before moving on to the
+	 * next one; lengths without a solution are retried at +/- ACCURACY, unless
+	 * a solve tolerance is set.
+	 * 
+	 * @param lengths
+	 *            lengths of the base non-edge
+	 * @param forward
+	 *            specified solution type
+	 * @return coordinates for every length, with a mask telling which lengths
+	 *         are realizable
+	 */
+	public RealizationBatch realizeBatch(double[] lengths,
+			RealizationType forward) {
+		ConstructionPlan p = getPlan();
+		Point2D p1 = initRealization.getPoint(baseNonEdge.v1());
+		RealizationBatch b = new RealizationBatch(graph, indexBound, lengths);
+		b.tolerance = solveTolerance;
+		solveBatch(p, b, p1, 0, forward);
+		if (solveTolerance <= 0) {
+			solveBatch(p, b, p1, ACCURACY, forward);
+			solveBatch(p, b, p1, -ACCURACY, forward);
+		}
+		return b;
+	}
+
+	/**
+	 * Solve the lengths of b that are not yet feasible, with the base non-edge
+	 * from p1 to p1 + (length + delta, 0)
+	 */
+	private void solveBatch(ConstructionPlan p, RealizationBatch b,
+			Point2D p1, double delta, RealizationType forward) {
+		int n = b.size();
+		boolean[] alive = new boolean[n];
+		for (int k = 0; k < n; ++k) {
+			if (b.feasible[k])
+				continue;
+			alive[k] = true;
+			b.slack[k] = 0;
+			b.x[p.base1][k] = p1.x();
+			b.y[p.base1][k] = p1.y();
+			b.x[p.base2][k] = p1.x() + (b.getLength(k) + delta);
+			b.y[p.base2][k] = p1.y();
+		}
+
+		for (int i = 0; i < p.numOfSteps; ++i) {
+			int orient = forward.getOrientation(i);
+			for (int k = 0; k < n; ++k) {
+				if (!alive[k])
+					continue;
+				alive[k] = p.placeStep(i, b, k, orient);
+				if (alive[k])
+					p.placeClusters(i, b, k);
+			}
+		}
+
+		for (int k = 0; k < n; ++k)
+			if (alive[k])
+				b.feasible[k] = true;
+	}
+
 	// add accuracy
 	public boolean realizable(double length) {
 		ArrayList<Realization> solutions = tryRealize(length);
 		return !solutions.isEmpty();
 	}
 
+	/**
+	 * Same as tryRealize(length, forward) != null, but only checks the
+	 * construction steps and allocates nothing
+	 */
 	public boolean realizable(double length, RealizationType forward) {
-		Realization g = tryRealize(length, forward);
-		return g != null;
+		return realizable(length, forward, getNumOfConstructStep());
+	}
+
+	/**
+	 * Same as realizable(length, forward), but only checks the first steps
+	 * construction steps, i.e. the realizability of a prefix of forward
+	 */
+	boolean realizable(double length, RealizationType forward, int steps) {
+		ConstructionPlan p = getPlan();
+		if (feasible(p, length, forward, steps))
+			return true;
+		if (solveTolerance > 0)
+			return false;
+		return feasible(p, length + ACCURACY, forward, steps)
+				|| feasible(p, length - ACCURACY, forward, steps);
+	}
+
+	/**
+	 * Check a length in a single pass, without the retries at +/- ACCURACY
+	 * 
+	 * @return the first construction step that is not realizable with the
+	 *         given type, or -1 if all are
+	 */
+	int infeasibleStep(double length, RealizationType forward) {
+		ConstructionPlan p = getPlan();
+		return p.infeasibleStep(baseFeasibility(p, length), forward,
+				p.numOfSteps);
+	}
+
+	private boolean feasible(ConstructionPlan p, double length,
+			RealizationType forward, int steps) {
+		return p.feasible(baseFeasibility(p, length), forward, steps);
+	}
+
+	/**
+	 * @return the per-thread scratch realization, with only the base non-edge
+	 *         placed
+	 */
+	private FlatRealization baseFeasibility(ConstructionPlan p, double length) {
+		FlatRealization r = feasibilityBuffer.get();
+		if (r == null) {
+			r = new FlatRealization(indexBound);
+			feasibilityBuffer.set(r);
+		}
+		r.tolerance = solveTolerance;
+
+		Point2D p1 = initRealization.getPoint(baseNonEdge.v1());
+		r.x[p.base1] = p1.x();
+		r.y[p.base1] = p1.y();
+		r.x[p.base2] = p1.x() + length;
+		r.y[p.base2] = p1.y();
+		return r;
 	}
 
 	/**
@@ -982,23 +1430,111 @@ public class TDLinkage {
 	}
 
 	public void genCayleyConfigSpace() {
-		cayleyConfigSpace = CayleyConfigSpace.generateCCS(this);
+		CayleyConfigSpace ccs;
+		if (ccsEngine == CCS_PROPAGATION)
+			ccs = CCSPropagation.generateCCS(this);
+		else
+			ccs = CayleyConfigSpace.generateCCS(this, parallelCCS, sparseTypes);
+		if (endpointTolerance > 0)
+			ccs.refineEndpoints(this, endpointTolerance);
+		cayleyConfigSpace = ccs;
+	}
+
+	/**
+	 * Refine the endpoints of the oriented intervals of generated CCSs by
+	 * bisection, until each is within the given distance of the true
+	 * endpoint; 0 (default) keeps the endpoints found by the engine, which are
+	 * within ACCURACY.
+	 * 
+	 * @param tolerance
+	 *            0, or in (0, ACCURACY): a larger tolerance would not improve
+	 *            on the endpoints found by the engine
+	 * @see Interval#error
+	 */
+	public void setEndpointTolerance(double tolerance) {
+		if (tolerance != 0 && !(tolerance > 0 && tolerance < ACCURACY))
+			throw new IllegalArgumentException("endpoint tolerance "
+					+ tolerance + " not in (0, " + ACCURACY + ")");
+		endpointTolerance = tolerance;
+	}
+
+	public double getEndpointTolerance() {
+		return endpointTolerance;
+	}
+
+	/**
+	 * Select how genCayleyConfigSpace() finds the intervals:
+	 * {@link #CCS_CANDIDATES} (default) or {@link #CCS_PROPAGATION}
+	 */
+	public void setCCSEngine(int engine) {
+		assert (engine == CCS_CANDIDATES || engine == CCS_PROPAGATION);
+		ccsEngine = engine;
+	}
+
+	public int getCCSEngine() {
+		return ccsEngine;
+	}
+
+	/**
+	 * Turn on/off parallel generation for the {@link #CCS_CANDIDATES} engine.
+	 * The result is the same as the serial generation.
+	 */
+	public void setParallelCCS(boolean on) {
+		parallelCCS = on;
+	}
+
+	public boolean isParallelCCS() {
+		return parallelCCS;
+	}
+
+	/**
+	 * Turn on/off parallel enumeration in
+	 * {@link ConnectedComponent#findAllComponents(TDLinkage)}. It only takes
+	 * effect when the interval graph is consistent; the components are the
+	 * same as the serial enumeration.
+	 */
+	public void setParallelComponents(boolean on) {
+		parallelComponents = on;
 	}
 
-	// assume candidates is sorted
+	public boolean isParallelComponents() {
+		return parallelComponents;
+	}
+
+	/**
+	 * Turn on/off sparse type discovery for the {@link #CCS_CANDIDATES}
+	 * engine: orientation prefixes that are not realizable for any length are
+	 * pruned, so only the types with a non-empty oriented CCS are checked.
+	 */
+	public void setSparseTypes(boolean on) {
+		sparseTypes = on;
+	}
+
+	public boolean isSparseTypes() {
+		return sparseTypes;
+	}
+
+	/**
+	 * Classify the candidates of an oriented CCS as interval endpoints,
+	 * isolated points or interior points, from their evaluated probes
+	 */
 	OrientedCayleyConfigSpace genOrientedCCSFromCandidates(
-			ArrayList<Double> candidates, RealizationType type) {
-		OrientedCayleyConfigSpace ccs = new OrientedCayleyConfigSpace(type);
+			CandidateProbes probes) {
+		OrientedCayleyConfigSpace ccs = new OrientedCayleyConfigSpace(
+				probes.getType());
 		Double lastEndpoint = null;
+		int size = probes.size();
 
 		// TODO: numerical error exists -> unrealizable !
-		double first = candidates.get(0);
-		double second = candidates.get(1);
+		double first = probes.candidate(0);
+		if (size == 1) {
+			if (probes.realizableAt(0))
+				ccs.appendInterval(first, first);
+			return ccs;
+		}
 
-		// if (!realizable(first))
-		// first += errorAdjust;
-		if (realizable(first, type)) {
-			if (realizable((first + second) / 2, type)) { // first is endpoint
+		if (probes.realizableAt(0)) {
+			if (probes.realizableAfter(0)) { // first is endpoint
 				lastEndpoint = first;
 				Debug.msg(first + " is interval start");
 			} else { // first is isolated point
@@ -1008,34 +1544,16 @@ public class TDLinkage {
 		} else
 			Debug.msg(first + " not realizable");
 
-		for (int i = 1; i < candidates.size() - 1; ++i) {
-			double cur = candidates.get(i);
+		for (int i = 1; i < size - 1; ++i) {
+			double cur = probes.candidate(i);
 			Debug.msg("Processing Candidate: " + cur);
-			// if (!realizable(cur)) {
-			// cur -= errorAdjust;
-			// if (!realizable(cur))
-			// cur += 2 * errorAdjust;
-			// }
-			if (!realizable(cur, type)) {
+			if (!probes.realizableAt(i)) {
 				Debug.msg(cur + " not realizable");
-
-				// ad-hoc modification for assertion error???
-				/*
-				 * if (lastEndpoint != null) { // current candidate should be an
-				 * end point... double tryCur = iterateTry(type, cur, -1);
-				 * assert (tryCur > lastEndpoint); assert (cur - tryCur < 1);
-				 * Debug.warnMsg(tryCur + " is realizable !"); } else {
-				 */
 				assert (lastEndpoint == null);
 				continue;
-				// }
 			}
-			double prev = candidates.get(i - 1);
-			double next = candidates.get(i + 1);
-			double p = (prev + cur) / 2;
-			double n = (cur + next) / 2;
-			boolean P = realizable(p, type);
-			boolean N = realizable(n, type);
+			boolean P = probes.realizableAfter(i - 1);
+			boolean N = probes.realizableAfter(i);
 			if (!P && !N) {
 				ccs.appendInterval(cur, cur);
 				Debug.msg(cur + " is isolated point");
@@ -1043,14 +1561,6 @@ public class TDLinkage {
 				assert (lastEndpoint != null);
 				Debug.msg(cur + " in middle of interval");
 			} else if (P && !N) {
-				// ad-hoc modification for assertion error????
-				/*
-				 * if (lastEndpoint == null) { // prev candidate should be a
-				 * start point... double tryPrev = iterateTry(type, prev, +1);
-				 * Debug.warnMsg(tryPrev + " is realizable as interval start!");
-				 * assert (tryPrev < p); assert (tryPrev - prev < 1);
-				 * lastEndpoint = prev; }
-				 */
 				assert (lastEndpoint != null);
 				ccs.appendInterval(lastEndpoint, cur);
 				lastEndpoint = null;
@@ -1063,12 +1573,9 @@ public class TDLinkage {
 			}
 		}
 
-		double last = candidates.get(candidates.size() - 1);
-		double lastbutone = candidates.get(candidates.size() - 2);
-		// if (!realizable(last))
-		// last -= errorAdjust;
-		if (realizable(last, type)) {
-			if (realizable((lastbutone + last) / 2, type)) { // last is endpoint
+		double last = probes.candidate(size - 1);
+		if (probes.realizableAt(size - 1)) {
+			if (probes.realizableAfter(size - 2)) { // last is endpoint
 				assert (lastEndpoint != null);
 				ccs.appendInterval(lastEndpoint, last);
 				Debug.msg(last + " is interval end");
@@ -1088,8 +1595,16 @@ public class TDLinkage {
 
 	// ========================= continuous path ==============
 	// Find a continuous motion path between two Cayley configurations
+	/**
+	 * Among the realizations at l1 and at l2, find the pair joined by the
+	 * shortest path, as scored by the path metric. The realizations are
+	 * grouped by the component of their oriented interval, and the path of
+	 * each pair on the same component is scored with the component index, so
+	 * only the shortest path is built.
+	 * 
+	 * @return null if no realization at l1 is connected to one at l2
+	 */
 	public ContinuousMotionPath findPath(double l1, double l2) {
-		ContinuousMotionPath result = null;
 		ArrayList<Realization> solutions1 = tryRealize(l1);
 		// Realization g = tryRealize(getForwardSolutionType(), l1);
 		// if (g != null)
@@ -1098,22 +1613,129 @@ public class TDLinkage {
 		// g = tryRealize(getForwardSolutionType(), l2);
 		// if (g != null)
 		// solutions2.add(0, g);
+
+		IntervalGraph graph = cayleyConfigSpace.getIntervalGraph(this);
+		IntervalGraph.ComponentIndex index = graph.getComponentIndex();
+		int[] nodes1 = intervalNodes(graph, solutions1);
+		int[] nodes2 = intervalNodes(graph, solutions2);
+		double[] lengths1 = baseLengths(solutions1);
+		double[] lengths2 = baseLengths(solutions2);
+		if (index == null || nodes1 == null || nodes2 == null)
+			return findPath(solutions1, solutions2);
+
+		HashMap<Integer, ArrayList<Integer>> byComponent = new HashMap<Integer, ArrayList<Integer>>();
+		for (int j = 0; j < nodes2.length; ++j) {
+			Integer c = index.component[nodes2[j]];
+			ArrayList<Integer> l = byComponent.get(c);
+			if (l == null) {
+				l = new ArrayList<Integer>();
+				byComponent.put(c, l);
+			}
+			l.add(j);
+		}
+
+		// the first pair with the shortest path, as in findPath(List, List)
+		int best1 = -1, best2 = -1;
+		double bestCost = Double.POSITIVE_INFINITY;
+		for (int i = 0; i < nodes1.length; ++i) {
+			ArrayList<Integer> l = byComponent.get(index.component[nodes1[i]]);
+			if (l == null)
+				continue;
+			for (int j : l) {
+				double cost = index.cost(nodes1[i], lengths1[i], nodes2[j],
+						lengths2[j], pathMetric);
+				if (cost < bestCost) {
+					best1 = i;
+					best2 = j;
+					bestCost = cost;
+				}
+			}
+		}
+		if (best1 < 0)
+			return null;
+		return findPath(solutions1.get(best1), solutions2.get(best2));
+	}
+
+	/**
+	 * Try every pair of realizations, and keep the first shortest path
+	 */
+	private ContinuousMotionPath findPath(List<Realization> solutions1,
+			List<Realization> solutions2) {
+		ContinuousMotionPath result = null;
+		double resultCost = Double.POSITIVE_INFINITY;
 		for (Realization g1 : solutions1)
 			for (Realization g2 : solutions2) {
 				ContinuousMotionPath path = findPath(g1, g2);
 				if (path != null) { // System.out.println("path length:" +
 					// path.size() + "; " + result);
-					if (result == null || result.size() > path.size())
+					double cost = path.cost(pathMetric);
+					if (result == null || cost < resultCost) {
 						result = path;
+						resultCost = cost;
+					}
 				} // return path;
 			}
 		return result;
 	}
 
+	private double[] baseLengths(List<Realization> solutions) {
+		double[] lengths = new double[solutions.size()];
+		for (int i = 0; i < lengths.length; ++i)
+			lengths[i] = solutions.get(i).length(baseNonEdge);
+		return lengths;
+	}
+
+	/**
+	 * @return the node of the oriented interval of each realization, or null
+	 *         if one is not in the CCS
+	 */
+	private int[] intervalNodes(IntervalGraph graph,
+			List<Realization> solutions) {
+		int[] nodes = new int[solutions.size()];
+		for (int i = 0; i < nodes.length; ++i) {
+			Realization g = solutions.get(i);
+			OrientedCayleyConfigSpace o = cayleyConfigSpace
+					.getOrientedCCS(getForwardSolutionType(g));
+			if (o == null)
+				return null;
+			Interval in = o.getContainingInterval(g.length(baseNonEdge));
+			nodes[i] = (in == null ? -1 : graph.indexOf(o, in));
+			if (nodes[i] < 0)
+				return null;
+		}
+		return nodes;
+	}
+
 	public ContinuousMotionPath findPath(Realization g1, Realization g2) {
 		return ContinuousMotionPath.findPath(this, g1, g2);
 	}
 
+	/**
+	 * Find the path of each (start, end) pair in parallel, like
+	 * {@link #findPath(Realization, Realization)}. To answer several batches
+	 * against the same CCS, keep one {@link PathQueryService} instead.
+	 *
+	 * @return the path of each pair, in order; null for a pair that is not
+	 *         connected
+	 */
+	public ArrayList<ContinuousMotionPath> findPaths(
+			List<TwoTuple<Realization, Realization>> queries) {
+		return new PathQueryService(this).findPaths(queries);
+	}
+
+	/**
+	 * Select how path finding picks the shorter way around a component:
+	 * {@link #PATH_CAYLEY_LENGTH} (default) or {@link #PATH_FLIPS}
+	 */
+	public void setPathMetric(int metric) {
+		assert (metric == PATH_CAYLEY_LENGTH || metric == PATH_FLIPS);
+		pathMetric = metric;
+	}
+
+	public int getPathMetric() {
+		return pathMetric;
+	}
+
 	public ConnectedComponent findPathFrom(Realization g1) {
 		return ConnectedComponent.findComponent(this, g1);
 	}
@@ -276,11 +276,16 @@ public class Util {
 
 	// distance from point v to line (v1,v2)
 	public static double distance(Point2D v, Point2D v1, Point2D v2) {
-		double a = v2.y() - v1.y();
-		double b = v1.x() - v2.x();
-		double c = (v2.x() - v1.x()) * v1.y() - (v2.y() - v1.y()) * v1.x();
-		double d = Math.abs(a * v.x() + b * v.y() + c)
-				/ Math.sqrt(a * a + b * b);
+		return distance(v.x(), v.y(), v1.x(), v1.y(), v2.x(), v2.y());
+	}
+
+	// distance from point (x,y) to line ((x1,y1),(x2,y2))
+	public static double distance(double x, double y, double x1, double y1,
+			double x2, double y2) {
+		double a = y2 - y1;
+		double b = x1 - x2;
+		double c = (x2 - x1) * y1 - (y2 - y1) * x1;
+		double d = Math.abs(a * x + b * y + c) / Math.sqrt(a * a + b * b);
 		return d;
 	}
 
@@ -347,51 +352,76 @@ public class Util {
 	 */
 	public static Point2D solve(Point2D p1, Point2D p2, double r1, double r2,
 			int orient) {
+		double[] out = new double[2];
+		if (!solve(p1.x(), p1.y(), p2.x(), p2.y(), r1, r2, orient, out))
+			return null;
+		return new Point2D(out[0], out[1]);
+	}
+
+	/**
+	 * Same as {@link #solve(Point2D, Point2D, double, double, int)} on raw
+	 * coordinates, writing the solution into out[0] and out[1]
+	 * 
+	 * @return false if no solution exists
+	 */
+	public static boolean solve(double x1, double y1, double x2, double y2,
+			double r1, double r2, int orient, double[] out) {
+		return solve(x1, y1, x2, y2, r1, r2, orient, 0, out, 0, out, 1) >= 0;
+	}
 
-		// TODO:
-		double r3 = p1.distance(p2);
+	/**
+	 * The allocation-free ruler-and-compass kernel, writing the solution into
+	 * xs[ix] and ys[iy]. If the two circles miss each other by at most
+	 * tolerance, the discriminant is clamped to 0 and the point is placed on
+	 * the line through the two base points.
+	 * 
+	 * @param orient
+	 *            +1: v1->v clockwise from v1->v2; -1: counterclockwise; 0:
+	 *            collinear | don't care
+	 * @return the slack used, i.e. by how much the circles missed each other (0
+	 *         if they intersect), or -1 if no solution exists
+	 */
+	public static double solve(double x1, double y1, double x2, double y2,
+			double r1, double r2, int orient, double tolerance, double[] xs,
+			int ix, double[] ys, int iy) {
+		double dx = x1 - x2, dy = y1 - y2;
+		double r3 = Math.sqrt(dx * dx + dy * dy);
 		assert (r3 != 0);
 
 		// a = (r0^2 - r1^2 + d^2 ) / (2 d)
 		double a = (r1 * r1 - r2 * r2 + r3 * r3) / (2 * r3);
-		// double a = ((2 * pp1.x() * pp1.x() - 2 * pp1.x() * pp.x() + 2 *
-		// pp1.y()
-		// * pp1.y() - 2 * pp1.y() * pp.y() + 2 * pp2.x() * pp.x() + 2
-		// * pp2.y() * pp.y() - 2 * pp1.x() * pp2.x() - 2 * pp1.y()
-		// * pp2.y()) / (2 * r3));
-
+		double slack = 0;
 		if (r1 * r1 < a * a) {
-			// if (Graph.DEBUG) System.out.println("quit for r1 < a:" + a);
-			return null;
+			if (tolerance <= 0)
+				return -1;
+			slack = Math.max(r3 - (r1 + r2), Math.abs(r1 - r2) - r3);
+			if (slack > tolerance)
+				return -1;
+			slack = Math.max(slack, 0);
+			a = (a > 0 ? r1 : -r1);
 		}
 		// h^2 = r0^2 - a^2
 		double h = Math.sqrt(r1 * r1 - a * a);
-		// if (Graph.DEBUG) System.out.println("h,a: " + h + "," + a);
 
 		// P2 = P0 + a ( P1 - P0 ) / d
-		Point2D p3 = p1.add(p2.minus(p1).multiply(a).divide(r3));
-
-		// if (Graph.DEBUG) System.out.println("p2x,p2y: " + p2x + "," +
-		// p2y);
+		double x3 = x1 + (x2 - x1) * a / r3;
+		double y3 = y1 + (y2 - y1) * a / r3;
 
-		double Xc = p3.x() + h * (p2.y() - p1.y()) / r3;
-		double Yc = p3.y() - h * (p2.x() - p1.x()) / r3;
-		// System.out.println("Xc,Yc: " + Xc + "," + Yc); // orientation +1
-		double Xd = p3.x() - h * (p2.y() - p1.y()) / r3;
-		double Yd = p3.y() + h * (p2.x() - p1.x()) / r3;
-		// System.out.println("Xd,Yd: " + Xd + "," + Yd); // orientation -1
+		// orientation +1
+		double xc = x3 + h * (y2 - y1) / r3;
+		double yc = y3 - h * (x2 - x1) / r3;
 
-		Point2D pv = new Point2D(Xc, Yc);
-
-		int o = Point2D.orientationOf(p1, p2, pv);
+		int o = Point2D.orientationOf(x1, y1, x2, y2, xc, yc);
 		if (o == 0 || orient == 0 || o == orient) {
 			if (orient == 0)
 				Debug.warnMsg("???? orient == 0 ????");
+			xs[ix] = xc;
+			ys[iy] = yc;
 		} else {
-			pv = new Point2D(Xd, Yd);
-			o = Point2D.orientationOf(p1, p2, pv);
+			// orientation -1
+			xs[ix] = x3 - h * (y2 - y1) / r3;
+			ys[iy] = y3 + h * (x2 - x1) / r3;
 		}
-
-		return pv;
+		return slack;
 	}
 }
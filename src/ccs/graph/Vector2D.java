@@ -21,14 +21,15 @@ package ccs.graph;
  * Represents an immutable 2D vector (x,y) in double precision.
  * @author Menghan
  */
-public class Vector2D {
-	Point2D p;
+public final class Vector2D {
+	private final double x, y;
 
 	/**
 	 * @param y
 	 */
 	public Vector2D(double x, double y) {
-		p = new Point2D(x, y);
+		this.x = x;
+		this.y = y;
 	}
 
 	/**
@@ -46,7 +47,7 @@ public class Vector2D {
 	 * @return the x coordinate of the vector
 	 */
 	public double x() {
-		return p.x();
+		return x;
 	}
 
 	/**
@@ -54,7 +55,7 @@ public class Vector2D {
 	 * @return the y coordinate of the vector
 	 */
 	public double y() {
-		return p.y();
+		return y;
 	}
 
 	/**
@@ -62,7 +63,7 @@ public class Vector2D {
 	 * @return the norm of the vector
 	 */
 	public double norm() {
-		return p.distance(0, 0);
+		return Math.sqrt(x * x + y * y);
 	}
 
 	public Vector2D inverse() {
@@ -95,7 +96,7 @@ public class Vector2D {
 
 		// want the angle in ccw from e1 to e2
 		// handle the situation where angle should be > pi
-		int orient = Point2D.orientationOf(Point2D.orig, this.p, that.p);
+		int orient = Point2D.orientationOf(0, 0, x, y, that.x, that.y);
 		if (orient > 0) {
 			angle = Math.PI * 2 - angle;
 		}
@@ -121,6 +122,6 @@ public class Vector2D {
 
 	@Override
 	public String toString() {
-		return "(" + p.x() + ", " + p.y() + ")";
+		return "(" + x + ", " + y + ")";
 	}
 }
@@ -96,15 +96,10 @@ public class CCSModel {
 	 *         return null
 	 */
 	public Interval contains(double val) {
-		ArrayList<Interval> union;
 		if (isOriented)
-			union = occs.getIntervals();
+			return occs.getContainingInterval(val);
 		else
-			union = ccs.getIntervals();
-		for (Interval i : union)
-			if (i.contains(val))
-				return i;
-		return null;
+			return ccs.getContainingInterval(val);
 	}
 
 	public boolean isGenerated() {
@@ -316,8 +316,7 @@ public class MotionModel implements ChangeListener {
 	}
 
 	private void genComponents() {
-		components = ConnectedComponent.findAllComponents(TDLinkageModel
-				.getInstance().getTd());
+		components = TDLinkageModel.getInstance().findAllComponents();
 		componentSpinnerModel.setList(components);
 	}
 
@@ -19,12 +19,14 @@ package ui;
 
 import java.awt.geom.AffineTransform;
 import java.awt.geom.NoninvertibleTransformException;
+import java.io.File;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.util.AbstractList;
 import java.util.ArrayList;
 
+import ccs.graph.CCSCache;
 import ccs.graph.CayleyConfigSpace;
 import ccs.graph.Cluster;
 import ccs.graph.ConnectedComponent;
@@ -42,11 +44,45 @@ public class TDLinkageModel {
 	private Realization curRealization = new Realization();
 	private TDLinkage td; // when drawing the graph, set td to null;
 
+	/**
+	 * td as of the last refresh, reused by the next refresh if only the
+	 * points have moved since
+	 */
+	private TDLinkage lastTd;
+
 	private static TDLinkageModel me;
 
+	/**
+	 * on-disk cache of configuration spaces, in the directory given by the
+	 * system property ccs.cache; null if the property is not set
+	 */
+	private CCSCache cache;
+
+	/**
+	 * generate configuration spaces in parallel if the system property
+	 * ccs.parallel is true
+	 */
+	private final boolean parallelCCS = Boolean.getBoolean("ccs.parallel");
+
+	/**
+	 * enumerate connected components in parallel if the system property
+	 * ccs.parallelComponents is true
+	 */
+	private final boolean parallelComponents = Boolean
+			.getBoolean("ccs.parallelComponents");
+
+	/**
+	 * discover realization types from the extreme solutions if the system
+	 * property ccs.sparse is true
+	 */
+	private final boolean sparseTypes = Boolean.getBoolean("ccs.sparse");
+
 	// private ControlPanel control = ControlPanel.getInstance();
 
 	private TDLinkageModel() {
+		String dir = System.getProperty("ccs.cache");
+		if (dir != null)
+			cache = new CCSCache(new File(dir));
 	}
 
 	public static TDLinkageModel getInstance() {
@@ -124,11 +160,27 @@ public class TDLinkageModel {
 	}
 
 	public void refresh() {
+		TDLinkage last = me.lastTd;
 		me.clearTd();
+		me.lastTd = null;
+		// Step 0. same graph, only the bar lengths changed: keep the
+		// decomposition, and the extreme solutions of the unchanged steps
+		if (last != null && last.updateInitPoints(me.curRealization)) {
+			me.td = me.lastTd = last;
+			Debug.msg("linkage updated.");
+			FloatingPanels.getInstance().refresh();
+			return;
+		}
+
 		// Step 1. test if it is td
 		TDLinkage t = new TDLinkage(me.curRealization.getGraph());
 		if (t.is1DofTreeDecomposable()) {
 			me.td = t;
+			// component tracing re-solves after flipping single orientations
+			me.td.setPrefixMemo(true);
+			me.td.setParallelCCS(parallelCCS);
+			me.td.setParallelComponents(parallelComponents);
+			me.td.setSparseTypes(sparseTypes);
 		} else {
 			me.td = null;
 			return;
@@ -141,6 +193,7 @@ public class TDLinkageModel {
 		// if (!me.td.constructionSequenceGenerated())
 		//me.td.generateConstructionSequence();
 		me.td.normalizeBaseNonEdge();
+		me.lastTd = me.td;
 		Debug.msg("step 2 completed.");
 
 		// Debug.msg(me.td+"");
@@ -165,11 +218,23 @@ public class TDLinkageModel {
 	public CayleyConfigSpace getCayleyConfigurationSpace() {
 		if (!td.ccsGenerated()){
 			//td.setInitPoints(getCurRealization());
-			td.genCayleyConfigSpace();
+			if (cache != null)
+				cache.getCayleyConfigSpace(td);
+			else
+				td.genCayleyConfigSpace();
 		}
 		return td.cayleyConfigSpace;
 	}
 
+	/**
+	 * @return all connected components of the current linkage
+	 */
+	public ArrayList<ConnectedComponent> findAllComponents() {
+		if (cache != null)
+			return cache.getComponents(td);
+		return ConnectedComponent.findAllComponents(td);
+	}
+
 	public RealizationType getForwardSolutionType() {
 		return td.getForwardSolutionType(curRealization);
 	}